@@ -0,0 +1,15 @@
+#!/bin/bash
+# Time gitlet commands against generated repositories of growing size.
+#
+# Each scale point is generated and measured in a fresh JVM under target/macro,
+# and the results are written as JSON Lines to target/macro-results.jsonl.
+# Every option takes a comma separated list, e.g.
+#     ./macro.sh --commits 100,1000,10000 --files 100,1000 --runs 5
+# See RepositoryGenerator.Spec for all options.
+set -e
+cd "$(dirname "$0")"
+JAR="$PWD/target/benchmarks.jar"
+if [ ! -f "$JAR" ]; then
+    mvn -B -q package
+fi
+exec java -cp "$JAR" gitlet.MacroBenchmark "$@"
@@ -0,0 +1,19 @@
+#!/bin/bash
+# Run the gitlet JMH benchmarks with the GC/allocation profiler.
+#
+# Gitlet works on the current directory, so the benchmarks run in a scratch
+# directory, target/scratch, marked by a .gitlet-bench file: they refuse to
+# run anywhere else, as they wipe the directory they run in.
+#
+# Results are also written as JSON to target/jmh-result.json.
+# Extra arguments go to JMH, e.g. ./run.sh CommitBenchmark -p files=1000
+set -e
+cd "$(dirname "$0")"
+JAR="$PWD/target/benchmarks.jar"
+if [ ! -f "$JAR" ]; then
+    mvn -B -q package
+fi
+mkdir -p target/scratch
+touch target/scratch/.gitlet-bench
+cd target/scratch
+exec java -jar "$JAR" -prof gc -rf json -rff ../jmh-result.json "$@"
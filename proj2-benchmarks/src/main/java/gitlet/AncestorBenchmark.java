@@ -0,0 +1,75 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Repository.getCommonAncestor of two branches sharing a history of DEPTH
+ * commits, each with BRANCH_LENGTH commits of its own.
+ *
+ * @author Crvena
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AncestorBenchmark {
+    private static final int BRANCH_LENGTH = 10;
+    private static final String OTHER = "other";
+
+    @Param({"100", "1000"})
+    int depth;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        BenchmarkRepository.reset();
+        commits("shared", depth);
+        Repository.createNewBranch(OTHER);
+        commits("master", BRANCH_LENGTH);
+        Repository.switchToBranch(OTHER);
+        commits(OTHER, BRANCH_LENGTH);
+        Repository.switchToBranch(Repository.DEFAULT_BRANCH);
+    }
+
+    private static void commits(String name, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            Files.writeString(Path.of(name), name + i);
+            Repository.add(name);
+            Repository.commit(name + i);
+        }
+    }
+
+    /**
+     * With every commit already decoded
+     */
+    @Benchmark
+    public Commit warm() {
+        return Repository.getCommonAncestor(Repository.DEFAULT_BRANCH, OTHER);
+    }
+
+    /**
+     * Decoding every commit again
+     */
+    @Benchmark
+    public Commit cold() {
+        Repository.OBJECT_CACHE.clear();
+        return Repository.getCommonAncestor(Repository.DEFAULT_BRANCH, OTHER);
+    }
+}
@@ -0,0 +1,91 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * A throwaway gitlet repository in the working directory, for the benchmarks.
+ * <p>
+ * Repository works on the directory the JVM started in, so the benchmarks
+ * must be started in a scratch directory holding a MARKER file (run.sh does it).
+ * Everything else in that directory is deleted on reset().
+ * <p>
+ * Repository keeps static state, so reset() once per fork, in a Level.Trial setup.
+ *
+ * @author Crvena
+ */
+final class BenchmarkRepository {
+    static final String MARKER = ".gitlet-bench";
+
+    private BenchmarkRepository() {
+    }
+
+    /**
+     * Start over with an empty, initialized repository
+     *
+     * @throws IllegalStateException - When not run in a scratch directory
+     */
+    static void reset() throws IOException {
+        if (!Utils.join(Repository.CWD, MARKER).exists()) {
+            throw new IllegalStateException(String.format(
+                    "%s is not a scratch directory (no %s), see run.sh", Repository.CWD, MARKER));
+        }
+        deleteTree(Repository.GITLET_DIR.toPath());
+        for (String name : Utils.plainFilenamesIn(Repository.CWD)) {
+            if (!name.equals(MARKER)) {
+                Files.delete(Path.of(name));
+            }
+        }
+        Repository.OBJECT_CACHE.clear();
+        Repository.init();
+    }
+
+    /**
+     * Write COUNT files of SIZE random bytes, named PREFIX0, PREFIX1...
+     *
+     * @return The file names
+     */
+    static List<String> writeFiles(String prefix, int count, int size, long seed) throws IOException {
+        Random random = new Random(seed);
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            String name = prefix + i;
+            Files.write(Path.of(name), data);
+            names.add(name);
+        }
+        return names;
+    }
+
+    static byte[] randomBytes(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * @return The object file of SHA1
+     */
+    static File objectFile(String sha1) {
+        return Utils.join(Repository.OBJECTS_DIR, sha1.substring(0, 2), sha1.substring(2));
+    }
+}
@@ -0,0 +1,89 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One file through the object store: Blob construction (read and hash),
+ * writing and reading the blob object, and checking it out again.
+ *
+ * @author Crvena
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BlobBenchmark {
+    private static final String FILE = "blob";
+
+    @Param({"1024", "1048576", "67108864"})
+    int size;
+
+    private Blob blob;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        BenchmarkRepository.reset();
+        BenchmarkRepository.writeFiles(FILE, 1, size, 42);
+        blob = new Blob(FILE + 0);
+        LockManager.writeObject(BenchmarkRepository.objectFile(blob.getSha1()),
+                blob.rawHeader(), blob.getData());
+    }
+
+    @Benchmark
+    public Blob construct() throws IOException {
+        return new Blob(FILE + 0);
+    }
+
+    /**
+     * Reading the object without the cache
+     */
+    @Benchmark
+    public Blob readObject() {
+        Repository.OBJECT_CACHE.clear();
+        return Repository.readBlobObject(blob.getSha1());
+    }
+
+    @Benchmark
+    public Blob readObjectCached() {
+        return Repository.readBlobObject(blob.getSha1());
+    }
+
+    @Benchmark
+    public void restore() {
+        Repository.restoreBlobContent(blob.getSha1());
+    }
+
+    /**
+     * Writing a new object, not the no-op of writing an existing one
+     */
+    @State(Scope.Thread)
+    public static class Fresh {
+        @Setup(Level.Invocation)
+        public void deleteObject(BlobBenchmark benchmark) throws IOException {
+            Files.deleteIfExists(BenchmarkRepository.objectFile(benchmark.blob.getSha1()).toPath());
+        }
+    }
+
+    @Benchmark
+    public boolean writeObject(Fresh fresh) throws IOException {
+        return LockManager.writeObject(BenchmarkRepository.objectFile(blob.getSha1()),
+                blob.rawHeader(), blob.getData());
+    }
+}
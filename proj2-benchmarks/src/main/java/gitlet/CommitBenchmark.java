@@ -0,0 +1,109 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Commits of FILES files: staging, construction (which hashes the manifest),
+ * serialization, and the commit object on disk.
+ *
+ * @author Crvena
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommitBenchmark {
+    @Param({"10", "100", "1000"})
+    int files;
+
+    @Param({"1024"})
+    int fileSize;
+
+    private List<Blob> blobs;
+    private Commit head;
+    private Commit staged;
+    private Commit commit;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        BenchmarkRepository.reset();
+        blobs = new ArrayList<>();
+        for (String name : BenchmarkRepository.writeFiles("f", files, fileSize, 42)) {
+            blobs.add(new Blob(name));
+        }
+        head = Repository.getHeadCommit();
+        staged = stage();
+        commit = Commit.finishCommit(staged, Repository.DEFAULT_BRANCH, "bench", new Date());
+        LockManager.writeObject(BenchmarkRepository.objectFile(commit.getSha1()),
+                Utils.serialize(commit));
+    }
+
+    private Commit stage() {
+        Commit stage = Commit.createStagedCommit(head);
+        for (Blob blob : blobs) {
+            stage.addToStage(blob);
+        }
+        return stage;
+    }
+
+    @Benchmark
+    public Commit stageFiles() {
+        return stage();
+    }
+
+    @Benchmark
+    public Commit construct() {
+        return Commit.finishCommit(staged, Repository.DEFAULT_BRANCH, "bench", new Date());
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return Utils.serialize(commit);
+    }
+
+    /**
+     * Reading the object without the cache
+     */
+    @Benchmark
+    public Commit readObject() {
+        Repository.OBJECT_CACHE.clear();
+        return Repository.readCommitObject(commit.getSha1());
+    }
+
+    /**
+     * Writing a new object, not the no-op of writing an existing one
+     */
+    @State(Scope.Thread)
+    public static class Fresh {
+        @Setup(Level.Invocation)
+        public void deleteObject(CommitBenchmark benchmark) throws IOException {
+            Files.deleteIfExists(BenchmarkRepository.objectFile(benchmark.commit.getSha1()).toPath());
+        }
+    }
+
+    @Benchmark
+    public boolean writeObject(Fresh fresh) throws IOException {
+        return LockManager.writeObject(BenchmarkRepository.objectFile(commit.getSha1()),
+                Utils.serialize(commit));
+    }
+}
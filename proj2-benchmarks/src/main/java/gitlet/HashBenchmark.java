@@ -0,0 +1,49 @@
+package gitlet;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Utils.sha1, alone and the way Blob ids are computed.
+ * No repository needed.
+ *
+ * @author Crvena
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HashBenchmark {
+    @Param({"64", "4096", "1048576"})
+    int size;
+
+    private byte[] data;
+
+    @Setup
+    public void setup() {
+        data = BenchmarkRepository.randomBytes(size, 42);
+    }
+
+    @Benchmark
+    public String sha1() {
+        return Utils.sha1(data);
+    }
+
+    @Benchmark
+    public String blobId() {
+        return Utils.sha1(Utils.serialize((long) data.length), data, "file.txt");
+    }
+}
@@ -0,0 +1,239 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end timings of gitlet commands against generated repositories
+ * of growing size, to plot latency against repository size.
+ * <p>
+ * Usage:
+ * <pre>
+ * java -cp benchmarks.jar gitlet.MacroBenchmark [--dir D] [--runs R] [--out FILE]
+ *      [--commits 100,1000] [--files 100,1000] [other RepositoryGenerator options]
+ * </pre>
+ * Every option takes a comma separated list, and every combination is
+ * one scale point. Each point runs in a fresh JVM, in its own scratch
+ * directory under D, since Repository is bound to the directory it starts in.
+ * <p>
+ * Output is JSON Lines, one object per point and command, with the spec,
+ * the size of .gitlet, the generation time and min/median/max latency in ms.
+ *
+ * @author Crvena
+ */
+public class MacroBenchmark {
+    private static final List<String> COMMANDS =
+            List.of("add", "commit", "status", "checkout", "log", "find", "merge");
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--point")) {
+            runPoint(Arrays.copyOfRange(args, 1, args.length));
+        } else {
+            drive(args);
+        }
+    }
+
+    /**
+     * Run every scale point in its own JVM and collect the results
+     */
+    private static void drive(String[] args) throws IOException, InterruptedException {
+        Path dir = Path.of("target", "macro");
+        Path out = Path.of("target", "macro-results.jsonl");
+        String runs = "5";
+        Map<String, String[]> axes = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Expected an option, got " + args[i]);
+            }
+            String name = args[i].substring(2);
+            switch (name) {
+                case "dir" -> dir = Path.of(args[i + 1]);
+                case "out" -> out = Path.of(args[i + 1]);
+                case "runs" -> runs = args[i + 1];
+                default -> {
+                    new RepositoryGenerator.Spec().set(name, args[i + 1].split(",")[0]);
+                    axes.put(name, args[i + 1].split(","));
+                }
+            }
+        }
+        List<List<String>> points = new ArrayList<>();
+        points.add(new ArrayList<>());
+        for (Map.Entry<String, String[]> axis : axes.entrySet()) {
+            List<List<String>> next = new ArrayList<>();
+            for (List<String> point : points) {
+                for (String value : axis.getValue()) {
+                    List<String> extended = new ArrayList<>(point);
+                    extended.add("--" + axis.getKey());
+                    extended.add(value);
+                    next.add(extended);
+                }
+            }
+            points = next;
+        }
+
+        Files.createDirectories(dir);
+        try (PrintWriter results = new PrintWriter(Files.newBufferedWriter(out, StandardCharsets.UTF_8))) {
+            for (int i = 0; i < points.size(); i++) {
+                Path pointDir = dir.resolve("point" + i);
+                Files.createDirectories(pointDir);
+                Files.createFile(pointDir.resolve(BenchmarkRepository.MARKER));
+                List<String> command = new ArrayList<>(List.of(
+                        Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                        "-cp", absoluteClassPath(),
+                        MacroBenchmark.class.getName(), "--point", "--runs", runs));
+                command.addAll(points.get(i));
+                System.err.println("point " + i + ": " + String.join(" ", points.get(i)));
+                Process process = new ProcessBuilder(command)
+                        .directory(pointDir.toFile())
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start();
+                int printed = 0;
+                try (BufferedReader lines = new BufferedReader(
+                        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = lines.readLine()) != null) {
+                        results.println(line);
+                        System.out.println(line);
+                        printed++;
+                    }
+                }
+                // Gitlet errors exit with status 0, so also check for missing results
+                if (process.waitFor() != 0 || printed == 0) {
+                    throw new IllegalStateException(String.format(
+                            "Point %d failed, its repository is kept in %s", i, pointDir));
+                }
+                deleteTree(pointDir);
+            }
+        }
+    }
+
+    /**
+     * Generate one repository in the working directory, time the commands,
+     * and print one JSON line per command
+     */
+    private static void runPoint(String[] args) throws IOException {
+        RepositoryGenerator.Spec spec = new RepositoryGenerator.Spec();
+        int runs = 5;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String name = args[i].substring(2);
+            if (name.equals("runs")) {
+                runs = Integer.parseInt(args[i + 1]);
+            } else {
+                spec.set(name, args[i + 1]);
+            }
+        }
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        RepositoryGenerator generator = new RepositoryGenerator(spec);
+        long start = System.nanoTime();
+        generator.generate();
+        double generateMs = (System.nanoTime() - start) / 1e6;
+        long repoBytes = sizeOf(Repository.GITLET_DIR.toPath());
+
+        Map<String, double[]> timings = new LinkedHashMap<>();
+        for (String command : COMMANDS) {
+            timings.put(command, new double[runs]);
+        }
+        List<String> messages = generator.getMessages();
+        String query = messages.get(messages.size() / 2);
+        String other = spec.branches > 0
+                ? RepositoryGenerator.branchOf(1) : null;
+        for (int run = 0; run < runs; run++) {
+            int file = generator.fileOf(0);
+            generator.writeFile(file);
+            timings.get("add")[run] = time(() -> Repository.add(RepositoryGenerator.fileName(file)));
+            timings.get("commit")[run] = time(() -> Repository.commit("bench commit"));
+            timings.get("status")[run] = time(() -> Repository.printStatus(false));
+            timings.get("log")[run] = time(Repository::log);
+            timings.get("find")[run] = time(() -> Repository.find(query));
+            if (other != null) {
+                timings.get("checkout")[run] = time(() -> Repository.switchToBranch(other))
+                        + time(() -> Repository.switchToBranch(Repository.DEFAULT_BRANCH));
+            }
+            timings.get("merge")[run] = timeMerge(generator, run);
+        }
+
+        for (String command : COMMANDS) {
+            if (command.equals("checkout") && other == null) {
+                continue;
+            }
+            double[] t = timings.get(command);
+            Arrays.sort(t);
+            stdout.printf(Locale.ROOT,
+                    "%s,\"repoBytes\":%d,\"generateMs\":%.1f,\"command\":\"%s\",\"runs\":%d,"
+                            + "\"minMs\":%.3f,\"medianMs\":%.3f,\"maxMs\":%.3f}%n",
+                    spec.toJsonFields(), repoBytes, generateMs, command, runs,
+                    t[0], t[runs / 2], t[runs - 1]);
+        }
+        stdout.flush();
+    }
+
+    /**
+     * Time merging a fresh branch with one commit into master, which has one too
+     */
+    private static double timeMerge(RepositoryGenerator generator, int run) throws IOException {
+        String branch = "bench-merge" + run;
+        Repository.createNewBranch(branch);
+        Repository.switchToBranch(branch);
+        int theirs = generator.fileOf(0);
+        generator.writeFile(theirs);
+        Repository.add(RepositoryGenerator.fileName(theirs));
+        Repository.commit("bench theirs");
+        Repository.switchToBranch(Repository.DEFAULT_BRANCH);
+        int ours = generator.fileOf(0);
+        while (ours == theirs) {
+            ours = generator.fileOf(0);
+        }
+        generator.writeFile(ours);
+        Repository.add(RepositoryGenerator.fileName(ours));
+        Repository.commit("bench ours");
+        return time(() -> Repository.merge(branch));
+    }
+
+    /**
+     * @return The class path of this JVM, usable from another directory
+     */
+    private static String absoluteClassPath() {
+        List<String> entries = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            entries.add(new File(entry).getAbsolutePath());
+        }
+        return String.join(File.pathSeparator, entries);
+    }
+
+    private static double time(Runnable command) {
+        long start = System.nanoTime();
+        command.run();
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    private static long sizeOf(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths.sorted((a, b) -> b.compareTo(a))::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Builds a synthetic repository in the working directory (see BenchmarkRepository)
+ * by driving the Repository API in-process, the way a user would.
+ * <p>
+ * The history has one line of work per branch: master plus BRANCHES topic
+ * branches, committed to in turn. Each line only ever changes its own files
+ * (file i belongs to line i % lines), so merging a topic into master, every
+ * MERGE_EVERY commits, never conflicts. File sizes are log-normal around
+ * MEDIAN_SIZE; SIZE_SIGMA 0 makes every file MEDIAN_SIZE bytes.
+ *
+ * @author Crvena
+ */
+final class RepositoryGenerator {
+    static final String FILE_PREFIX = "file";
+    static final String TOPIC_PREFIX = "topic";
+    private static final int MAX_SIZE = 64 << 20;
+
+    /**
+     * The shape of the repository to generate
+     */
+    static final class Spec {
+        /* Commits in total, merges included */
+        int commits = 100;
+        int files = 100;
+        int medianSize = 1024;
+        double sizeSigma = 1.0;
+        /* Topic branches besides master */
+        int branches = 2;
+        /* Merge a topic into master every that many commits, 0 for never */
+        int mergeEvery = 10;
+        int changesPerCommit = 3;
+        long seed = 42;
+
+        /**
+         * Set a field by its name in the command line, e.g. "merge-every"
+         *
+         * @throws IllegalArgumentException - When there is no such field
+         */
+        void set(String name, String value) {
+            switch (name) {
+                case "commits" -> commits = Integer.parseInt(value);
+                case "files" -> files = Integer.parseInt(value);
+                case "median-size" -> medianSize = Integer.parseInt(value);
+                case "size-sigma" -> sizeSigma = Double.parseDouble(value);
+                case "branches" -> branches = Integer.parseInt(value);
+                case "merge-every" -> mergeEvery = Integer.parseInt(value);
+                case "changes" -> changesPerCommit = Integer.parseInt(value);
+                case "seed" -> seed = Long.parseLong(value);
+                default -> throw new IllegalArgumentException("Unknown option --" + name);
+            }
+        }
+
+        /**
+         * @return The fields as the start of a JSON object, without the closing brace
+         */
+        String toJsonFields() {
+            return String.format(Locale.ROOT,
+                    "{\"commits\":%d,\"files\":%d,\"medianSize\":%d,\"sizeSigma\":%s,"
+                            + "\"branches\":%d,\"mergeEvery\":%d,\"changes\":%d,\"seed\":%d",
+                    commits, files, medianSize, sizeSigma, branches, mergeEvery,
+                    changesPerCommit, seed);
+        }
+    }
+
+    private final Spec spec;
+    private final Random random;
+    private final int lines;
+    private final List<String> messages = new ArrayList<>();
+    private String current = Repository.DEFAULT_BRANCH;
+    private int made;
+
+    RepositoryGenerator(Spec spec) {
+        if (spec.files < 2 * (spec.branches + 1)) {
+            throw new IllegalArgumentException("Need at least two files per branch");
+        }
+        this.spec = spec;
+        this.random = new Random(spec.seed);
+        this.lines = spec.branches + 1;
+    }
+
+    /**
+     * Wipe the working directory and generate the repository in it
+     * Runtime: O(C * (K + F)) with C commits of K changes, F files per checkout
+     */
+    void generate() throws IOException {
+        BenchmarkRepository.reset();
+        for (int i = 0; i < spec.files; i++) {
+            writeFile(i);
+            Repository.add(fileName(i));
+        }
+        commit("initial");
+        for (int topic = 1; topic <= spec.branches; topic++) {
+            Repository.createNewBranch(branchOf(topic));
+        }
+        int nextTopic = 1;
+        while (made < spec.commits) {
+            int line = made % lines;
+            switchTo(branchOf(line));
+            for (int k = 0; k < spec.changesPerCommit; k++) {
+                int file = fileOf(line);
+                writeFile(file);
+                Repository.add(fileName(file));
+            }
+            commit(String.format("change %d on %s", made, current));
+            if (spec.mergeEvery > 0 && spec.branches > 0 && made % spec.mergeEvery == 0
+                    && made < spec.commits) {
+                switchTo(Repository.DEFAULT_BRANCH);
+                merge(branchOf(nextTopic));
+                nextTopic = nextTopic % spec.branches + 1;
+            }
+        }
+        switchTo(Repository.DEFAULT_BRANCH);
+    }
+
+    /**
+     * @return The messages of all generated commits, oldest first
+     */
+    List<String> getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return A random file only changed by LINE
+     */
+    int fileOf(int line) {
+        int owned = (spec.files - line + lines - 1) / lines;
+        return line + lines * random.nextInt(owned);
+    }
+
+    static String fileName(int i) {
+        return FILE_PREFIX + i;
+    }
+
+    static String branchOf(int line) {
+        return line == 0 ? Repository.DEFAULT_BRANCH : TOPIC_PREFIX + line;
+    }
+
+    /**
+     * Fill file I with random content of a random size
+     */
+    void writeFile(int i) throws IOException {
+        double size = spec.medianSize * Math.exp(spec.sizeSigma * random.nextGaussian());
+        byte[] data = new byte[(int) Math.min(MAX_SIZE, Math.round(size))];
+        random.nextBytes(data);
+        Files.write(Path.of(fileName(i)), data);
+    }
+
+    private void commit(String message) {
+        Repository.commit(message);
+        messages.add(message);
+        made++;
+    }
+
+    private void merge(String topic) {
+        try {
+            Repository.merge(topic);
+            messages.add(String.format("Merged %s into %s.", topic, current));
+            made++;
+        } catch (GitletException e) {
+            // Nothing new on the topic since its last merge
+        }
+    }
+
+    private void switchTo(String branch) {
+        if (!branch.equals(current)) {
+            Repository.switchToBranch(branch);
+            current = branch;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A working tree of FILES committed files, a tenth of them modified
+ * and a tenth of them staged: Commit.getUnstaged, and the stage file.
+ * Status is measured both scanning the tree and through a WorkspaceMonitor,
+ * with one file edited before each call.
+ *
+ * @author Crvena
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WorkspaceBenchmark {
+    @Param({"10", "100", "1000"})
+    int files;
+
+    @Param({"1024"})
+    int fileSize;
+
+    private List<String> names;
+    private Commit staged;
+    private WorkspaceMonitor monitor;
+    private int edits;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        BenchmarkRepository.reset();
+        names = BenchmarkRepository.writeFiles("f", files, fileSize, 42);
+        for (String name : names) {
+            Repository.add(name);
+        }
+        Repository.commit("bench");
+        for (int i = 0; i < files; i += 10) {
+            Files.write(Path.of(names.get(i)), BenchmarkRepository.randomBytes(fileSize, i));
+        }
+        for (int i = 5; i < files; i += 10) {
+            Files.write(Path.of(names.get(i)), BenchmarkRepository.randomBytes(fileSize, i));
+            Repository.add(names.get(i));
+        }
+        staged = Repository.getStagedCommit();
+        monitor = Repository.watchWorkspace();
+        Repository.getUnstagedFiles(monitor);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        monitor.close();
+    }
+
+    @Benchmark
+    public SortedMap<String, Repository.UnstagedStatus> getUnstaged() {
+        return staged.getUnstaged(Utils.plainFilenamesIn(Repository.CWD));
+    }
+
+    @Benchmark
+    public SortedMap<String, Repository.UnstagedStatus> statusScan() throws IOException {
+        editOne();
+        return Repository.getUnstagedFiles();
+    }
+
+    @Benchmark
+    public SortedMap<String, Repository.UnstagedStatus> statusMonitored() throws IOException {
+        editOne();
+        return Repository.getUnstagedFiles(monitor);
+    }
+
+    @Benchmark
+    public Commit readStage() {
+        return Repository.getStagedCommit();
+    }
+
+    @Benchmark
+    public void writeStage() {
+        Repository.writeStageFile(staged);
+    }
+
+    private void editOne() throws IOException {
+        int i = edits++ % files;
+        Files.write(Path.of(names.get(i)), BenchmarkRepository.randomBytes(fileSize, edits));
+    }
+}
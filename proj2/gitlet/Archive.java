@@ -0,0 +1,329 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes the files of a commit as a tar archive (POSIX ustar, with pax
+ * headers for long names and huge files), straight from the object store.
+ * <p>
+ * Files are written in name order. Raw blobs are copied from their object
+ * file, or their chunk files, to the output without passing through the
+ * heap when the output is a file or pipe (see FileChannel.transferTo).
+ * <p>
+ * With prefetching, a pool reads the next blobs ahead of the writer.
+ * Blobs up to PREFETCH_LIMIT are read whole, bigger ones are only opened
+ * and then streamed in turn. At most PREFETCH_WINDOW reads a thread are
+ * in flight, so memory stays bounded whatever the size of the tree.
+ *
+ * @author Crvena
+ */
+class Archive {
+    static final int PREFETCH_LIMIT = 1 << 20;
+    static final int PREFETCH_WINDOW = 4;
+
+    private static final int BLOCK = 512;
+    private static final long MAX_USTAR_SIZE = 077777777777L;
+    private static final int MAX_USTAR_NAME = 100;
+    private static final byte[] ZEROS = new byte[BLOCK * 2];
+    private static final byte[] USTAR_MAGIC = {'u', 's', 't', 'a', 'r', 0, '0', '0'};
+
+    private final OutputStream out;
+    private final FileChannel direct;
+    private final long mtime;
+
+    /**
+     * @param out    - Where to write the archive
+     * @param direct - The file or pipe under OUT, for zero-copy transfers,
+     *               null when OUT transforms what's written, e.g. to compress it
+     * @param mtime  - Modification time of every file, in seconds
+     */
+    Archive(OutputStream out, FileChannel direct, long mtime) {
+        this.out = out;
+        this.direct = direct;
+        this.mtime = mtime;
+    }
+
+    /**
+     * The content of a blob, ready to be written
+     */
+    private static final class Content {
+        final long size;
+        /* The whole content, or null to stream it from CHANNEL or CHUNKS */
+        final byte[] data;
+        final FileChannel channel;
+        final long offset;
+        final List<Blob.Chunk> chunks;
+
+        Content(byte[] data) {
+            this(data, null, 0, data.length, null);
+        }
+
+        Content(FileChannel channel, long offset, long size) {
+            this(null, channel, offset, size, null);
+        }
+
+        Content(List<Blob.Chunk> chunks, long size) {
+            this(null, null, 0, size, chunks);
+        }
+
+        private Content(byte[] data, FileChannel channel, long offset, long size,
+                        List<Blob.Chunk> chunks) {
+            this.size = size;
+            this.data = data;
+            this.channel = channel;
+            this.offset = offset;
+            this.chunks = chunks;
+        }
+    }
+
+    /**
+     * Write the files BLOBS and end the archive
+     * Runtime: O(N) with N bytes of files
+     *
+     * @param blobs   - File names mapped to blob sha1, as in Commit.getAllBlobs()
+     * @param threads - Threads to read blobs ahead with, 0 to read them in turn
+     * @throws IOException - When IO system fails
+     */
+    void writeAll(Map<String, String> blobs, int threads) throws IOException {
+        Map<String, String> sorted = new TreeMap<>(blobs);
+        if (threads <= 0) {
+            for (Map.Entry<String, String> entry : sorted.entrySet()) {
+                writeFile(entry.getKey(), open(entry.getValue(), 0));
+            }
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            Deque<Future<Content>> window = new ArrayDeque<>();
+            try {
+                Iterator<Map.Entry<String, String>> pending = sorted.entrySet().iterator();
+                for (Map.Entry<String, String> entry : sorted.entrySet()) {
+                    while (window.size() < threads * PREFETCH_WINDOW && pending.hasNext()) {
+                        String sha1 = pending.next().getValue();
+                        window.add(pool.submit(() -> open(sha1, PREFETCH_LIMIT)));
+                    }
+                    writeFile(entry.getKey(), take(window.remove()));
+                }
+            } finally {
+                pool.shutdownNow();
+                for (Future<Content> left : window) {
+                    closeQuietly(left);
+                }
+            }
+        }
+        out.write(ZEROS);
+        out.flush();
+    }
+
+    /**
+     * Get a blob's content, reading it whole if up to LIMIT bytes
+     */
+    private static Content open(String sha1, long limit) throws IOException {
+        File file = Repository.getObjectFile(sha1);
+        if (!file.exists()) {
+            throw new GitletException("Object file referred by blob ref doesn't exist!");
+        }
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            Blob.Header header = Blob.readHeader(channel);
+            if (header == null) {
+                // Stored serialized by an older gitlet
+                channel.close();
+                return new Content(Repository.readBlobObject(sha1).getData());
+            }
+            if (header.chunks != null) {
+                channel.close();
+                return header.contentLength > limit
+                        ? new Content(header.chunks, header.contentLength)
+                        : new Content(Repository.CHUNKS.read(header.chunks, header.contentLength));
+            }
+            if (header.contentLength > limit) {
+                return new Content(channel, header.contentOffset, header.contentLength);
+            }
+            ByteBuffer data = ByteBuffer.allocate((int) header.contentLength);
+            while (data.hasRemaining()) {
+                if (channel.read(data, header.contentOffset + data.position()) < 0) {
+                    throw new IOException("Blob object ended early");
+                }
+            }
+            channel.close();
+            return new Content(data.array());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static Content take(Future<Content> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading blobs");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof GitletException) {
+                throw (GitletException) e.getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static void closeQuietly(Future<Content> future) {
+        if (future.cancel(true) || future.isCancelled()) {
+            return;
+        }
+        try {
+            Content content = future.get();
+            if (content.channel != null) {
+                content.channel.close();
+            }
+        } catch (InterruptedException | ExecutionException | IOException e) {
+            // Already failing
+        }
+    }
+
+    private void writeFile(String name, Content content) throws IOException {
+        try {
+            byte[] path = name.getBytes(StandardCharsets.UTF_8);
+            boolean ustar = path.length <= MAX_USTAR_NAME && content.size <= MAX_USTAR_SIZE;
+            if (!ustar) {
+                byte[] pax = (paxRecord("path", name) + paxRecord("size", Long.toString(content.size)))
+                        .getBytes(StandardCharsets.UTF_8);
+                out.write(header("PaxHeader", pax.length, 'x'));
+                out.write(pax);
+                pad(pax.length);
+            }
+            out.write(header(name, content.size, '0'));
+            if (content.data != null) {
+                out.write(content.data);
+            } else if (content.chunks != null && direct != null) {
+                out.flush();
+                Repository.CHUNKS.transfer(content.chunks, direct);
+            } else if (content.chunks != null) {
+                for (Blob.Chunk chunk : content.chunks) {
+                    try (FileChannel channel = Repository.CHUNKS.open(chunk)) {
+                        transfer(channel, 0, chunk.length, "Chunk " + chunk.sha1);
+                    }
+                }
+            } else {
+                transfer(content.channel, content.offset, content.size, "Blob object");
+            }
+            pad(content.size);
+        } finally {
+            if (content.channel != null) {
+                content.channel.close();
+            }
+        }
+    }
+
+    /**
+     * Copy SIZE bytes of CHANNEL from OFFSET to the archive
+     *
+     * @param what - What CHANNEL holds, for the error if it's too short
+     * @throws IOException - When IO system fails, or CHANNEL ends early
+     */
+    private void transfer(FileChannel channel, long offset, long size, String what)
+            throws IOException {
+        long position = offset;
+        long end = offset + size;
+        if (direct != null) {
+            out.flush();
+            while (position < end) {
+                long n = channel.transferTo(position, end - position, direct);
+                // transferTo returns 0 at the end of the file instead of -1
+                if (n <= 0 && position >= channel.size()) {
+                    throw new IOException(what + " ended early");
+                }
+                position += n;
+            }
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(64 << 10);
+        while (position < end) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException(what + " ended early");
+            }
+            out.write(buffer.array(), 0, n);
+            position += n;
+        }
+    }
+
+    private void pad(long size) throws IOException {
+        int rest = (int) (size % BLOCK);
+        if (rest != 0) {
+            out.write(ZEROS, 0, BLOCK - rest);
+        }
+    }
+
+    /**
+     * A ustar header block. Fields that don't fit are cut,
+     * a pax header before it then holds their real value.
+     */
+    private byte[] header(String name, long size, char type) {
+        byte[] header = new byte[BLOCK];
+        byte[] path = name.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(path, 0, header, 0, Math.min(path.length, MAX_USTAR_NAME));
+        octal(header, 100, 8, 0644);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        octal(header, 124, 12, Math.min(size, MAX_USTAR_SIZE));
+        octal(header, 136, 12, mtime);
+        header[156] = (byte) type;
+        System.arraycopy(USTAR_MAGIC, 0, header, 257, USTAR_MAGIC.length);
+        // The checksum is computed with its own field as spaces
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long sum = 0;
+        for (byte b : header) {
+            sum += b & 0xff;
+        }
+        octal(header, 148, 7, sum);
+        return header;
+    }
+
+    /**
+     * Write VALUE as zero-padded octal digits and a NUL in LENGTH bytes at OFFSET
+     */
+    private static void octal(byte[] header, int offset, int length, long value) {
+        String digits = Long.toOctalString(value);
+        int width = length - 1;
+        for (int i = 0; i < width; i++) {
+            int from = digits.length() - width + i;
+            header[offset + i] = (byte) (from < 0 ? '0' : digits.charAt(from));
+        }
+        header[offset + width] = 0;
+    }
+
+    /**
+     * A pax record, "LENGTH KEY=VALUE\n" where LENGTH counts itself too
+     */
+    private static String paxRecord(String key, String value) {
+        int rest = key.getBytes(StandardCharsets.UTF_8).length
+                + value.getBytes(StandardCharsets.UTF_8).length + 3;
+        int length = rest + Integer.toString(rest).length();
+        if (Integer.toString(length).length() > Integer.toString(rest).length()) {
+            length++;
+        }
+        return length + " " + key + "=" + value + "\n";
+    }
+}
@@ -0,0 +1,176 @@
+package gitlet;
+
+import java.util.*;
+
+/**
+ * Finds the commit that last changed each line of a file.
+ * <p>
+ * The walk goes backwards along first parents through the commit graph index.
+ * Commits whose changed-path filter rules the file out are skipped without
+ * reading anything, and a commit is only diffed against its parent when the
+ * file's blob id actually differs.
+ * <p>
+ * Lines still to be attributed are carried as ranges in the coordinates of
+ * the revision being looked at. At each diff, the parts of the ranges that
+ * fall into a block shared with the parent move to the parent's coordinates,
+ * and the rest belong to the commit. The walk stops as soon as no range is left.
+ * <p>
+ * Lines brought in by a merge are attributed to the merge commit.
+ *
+ * @author Crvena
+ */
+class Blame {
+    /**
+     * Lines [START, START + LENGTH) of the revision being looked at,
+     * which are lines [FINALSTART, FINALSTART + LENGTH) of the blamed file
+     */
+    private static final class Range {
+        final int start;
+        final int length;
+        final int finalStart;
+
+        Range(int start, int length, int finalStart) {
+            this.start = start;
+            this.length = length;
+            this.finalStart = finalStart;
+        }
+    }
+
+    private final CommitGraph graph;
+    private final String filename;
+    private final List<String> lines;
+    /* The commit of each line of the blamed file */
+    private final CommitGraph.Entry[] owners;
+
+    /**
+     * @param graph    - The commit graph index
+     * @param filename - The file to blame
+     * @param lines    - The lines of the file in the starting commit
+     */
+    private Blame(CommitGraph graph, String filename, List<String> lines) {
+        this.graph = graph;
+        this.filename = filename;
+        this.lines = lines;
+        this.owners = new CommitGraph.Entry[lines.size()];
+    }
+
+    /**
+     * Blame a file as of a commit
+     * Runtime: O(H) index lookups with H commits in the file's history,
+     *          plus one diff for each commit changing the file
+     *
+     * @param graph    - The commit graph index
+     * @param start    - The commit to blame from
+     * @param filename - The file to blame
+     * @return The commit of each line, and the lines
+     * @throws GitletException - When the file isn't in the commit
+     */
+    static Blame of(CommitGraph graph, Commit start, String filename) throws GitletException {
+        String blobSha1 = start.getBlobSha1(filename);
+        if (blobSha1 == null) {
+            throw new GitletException("File does not exist in that commit.");
+        }
+        Blame blame = new Blame(graph, filename,
+                Diff.splitLines(Repository.readBlobObject(blobSha1).getData()));
+        blame.run(graph.get(start.getSha1()), blobSha1);
+        return blame;
+    }
+
+    private void run(CommitGraph.Entry entry, String blobSha1) {
+        List<String> current = lines;
+        List<Range> pending = new ArrayList<>();
+        if (!lines.isEmpty()) {
+            pending.add(new Range(0, lines.size(), 0));
+        }
+        while (!pending.isEmpty()) {
+            if (entry.parentSha1 == null) {
+                // The initial commit
+                attribute(pending, entry);
+                break;
+            }
+            CommitGraph.Entry parent = graph.get(entry.parentSha1);
+            if (!entry.mayHaveChanged(filename)) {
+                entry = parent;
+                continue;
+            }
+            String parentBlobSha1 = Repository.readCommitObject(parent.sha1).getBlobSha1(filename);
+            if (blobSha1.equals(parentBlobSha1)) {
+                // False positive of the filter
+                entry = parent;
+                continue;
+            }
+            if (parentBlobSha1 == null) {
+                // The file was added here
+                attribute(pending, entry);
+                break;
+            }
+            List<String> older = Diff.splitLines(Repository.readBlobObject(parentBlobSha1).getData());
+            pending = passToParent(pending, Diff.matchingBlocks(older, current), entry);
+            current = older;
+            blobSha1 = parentBlobSha1;
+            entry = parent;
+        }
+    }
+
+    /**
+     * Move the parts of PENDING covered by BLOCKS to the parent's coordinates,
+     * and attribute the rest to ENTRY.
+     * Runtime: O(R + B) with R ranges and B blocks, both sorted
+     */
+    private List<Range> passToParent(List<Range> pending, List<int[]> blocks, CommitGraph.Entry entry) {
+        List<Range> passed = new ArrayList<>();
+        int b = 0;
+        for (Range range : pending) {
+            int pos = range.start;
+            int end = range.start + range.length;
+            while (pos < end) {
+                // Skip blocks ending before POS
+                while (b < blocks.size() && blocks.get(b)[1] + blocks.get(b)[2] <= pos) {
+                    b++;
+                }
+                if (b == blocks.size() || blocks.get(b)[1] >= end) {
+                    attribute(pos, end - pos, range.finalStart + pos - range.start, entry);
+                    break;
+                }
+                int[] block = blocks.get(b);
+                if (block[1] > pos) {
+                    attribute(pos, block[1] - pos, range.finalStart + pos - range.start, entry);
+                    pos = block[1];
+                }
+                int shared = Math.min(end, block[1] + block[2]) - pos;
+                passed.add(new Range(block[0] + pos - block[1], shared,
+                        range.finalStart + pos - range.start));
+                pos += shared;
+            }
+        }
+        return passed;
+    }
+
+    private void attribute(List<Range> ranges, CommitGraph.Entry entry) {
+        for (Range range : ranges) {
+            attribute(range.start, range.length, range.finalStart, entry);
+        }
+    }
+
+    private void attribute(int start, int length, int finalStart, CommitGraph.Entry entry) {
+        for (int i = 0; i < length; i++) {
+            owners[finalStart + i] = entry;
+        }
+    }
+
+    /**
+     * Print one line per line of the file:
+     * [short commit id] ([date] [line number]) [line]
+     */
+    void print() {
+        int width = Integer.toString(lines.size()).length();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (line.endsWith("\n")) {
+                line = line.substring(0, line.length() - 1);
+            }
+            System.out.printf("%1$s (%2$tF %2$tT %2$tz %3$" + width + "d) %4$s\n",
+                    owners[i].sha1.substring(0, 8), new Date(owners[i].timestamp), i + 1, line);
+        }
+    }
+}
@@ -2,12 +2,73 @@ package gitlet;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
 
 /**
  * A data structure containing a file's version and information.
+ * <p>
+ * In the object store a blob is raw, not serialized:
+ * <pre>
+ * MAGIC, filename length (int), filename (UTF-8), content
+ * </pre>
+ * so the content can be copied to the working tree without decoding it,
+ * see Repository.restoreBlobContent. Content of ChunkStore.THRESHOLD bytes
+ * or more is stored in chunks instead, and the object only lists them:
+ * <pre>
+ * CHUNKED_MAGIC, filename length (int), filename (UTF-8), content length (long),
+ * chunk count (int), then for each chunk: sha1 (20 bytes), length (int)
+ * </pre>
+ * Blobs stored by older versions are serialized objects, which start with
+ * a different magic.
  */
 public class Blob implements GitletObject {
+    /* Pinned, so stages and blobs serialized by older versions still read */
+    private static final long serialVersionUID = -1548303557816442067L;
+    private static final byte[] MAGIC = {'G', 'L', 'B', '1'};
+    private static final byte[] CHUNKED_MAGIC = {'G', 'L', 'C', '1'};
+    private static final int FIXED_HEADER = MAGIC.length + Integer.BYTES;
+    private static final int CHUNK_ENTRY = 20 + Integer.BYTES;
+    private static final HexFormat HEX = HexFormat.of();
+
+    /**
+     * Where the content of a raw blob is: in its object file, or in chunks
+     */
+    static final class Header {
+        final String filename;
+        final long contentOffset;
+        final long contentLength;
+        /* The chunks of the content in order, null if it's in the object file */
+        final List<Chunk> chunks;
+
+        private Header(String filename, long contentOffset, long contentLength, List<Chunk> chunks) {
+            this.filename = filename;
+            this.contentOffset = contentOffset;
+            this.contentLength = contentLength;
+            this.chunks = chunks;
+        }
+    }
+
+    /**
+     * A piece of the content of a chunked blob, see ChunkStore
+     */
+    static final class Chunk {
+        final String sha1;
+        final int length;
+
+        Chunk(String sha1, int length) {
+            this.sha1 = sha1;
+            this.length = length;
+        }
+    }
 
     /* The file describer of the blob */
     private final File file;
@@ -15,8 +76,8 @@ public class Blob implements GitletObject {
     private final String filename;
     /* The checksum of the blob */
     private final String sha1;
-    /* The content of the file */
-    private final byte[] data;
+    /* The content of the file, null until read for a blob known by sha1 */
+    private byte[] data;
 
     /**
      * Create a blob with given file name
@@ -25,6 +86,7 @@ public class Blob implements GitletObject {
      */
     public Blob(String filename) throws GitletException, IOException {
         File f = new File(filename);
+        Trace.count(Trace.Counter.FILES_STATED, 1);
         if (!f.exists()) {
             throw new GitletException("File does not exist.");
         }
@@ -34,6 +96,150 @@ public class Blob implements GitletObject {
         this.sha1 = Utils.sha1(Utils.serialize(Files.size(f.toPath())), this.data, this.filename);
     }
 
+    private Blob(String filename, String sha1, byte[] data) {
+        this.file = new File(filename);
+        this.filename = filename;
+        this.sha1 = sha1;
+        this.data = data;
+    }
+
+    /**
+     * A blob already in the object store, its content read on first use
+     *
+     * @param filename - The file name of the blob
+     * @param sha1     - The sha1 of the blob
+     */
+    static Blob stored(String filename, String sha1) {
+        return new Blob(filename, sha1, null);
+    }
+
+    /**
+     * A blob of DATA under the name FILENAME, without reading the working tree,
+     * e.g. the content of a blob moved to a new name by a merge
+     *
+     * @param filename - The file name of the blob
+     * @param data     - The content
+     */
+    static Blob of(String filename, byte[] data) {
+        String sha1 = Utils.sha1(Utils.serialize((long) data.length), data, filename);
+        return new Blob(filename, sha1, data);
+    }
+
+    /**
+     * @return The header of the raw object, to be followed by getData()
+     */
+    byte[] rawHeader() {
+        byte[] name = filename.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(FIXED_HEADER + name.length)
+                .put(MAGIC).putInt(name.length).put(name).array();
+    }
+
+    /**
+     * @param chunks - The chunks of getData(), in order
+     * @return The object of a chunked blob
+     */
+    byte[] chunkedObject(List<Chunk> chunks) {
+        byte[] name = filename.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer object = ByteBuffer.allocate(FIXED_HEADER + name.length + Long.BYTES
+                + Integer.BYTES + chunks.size() * CHUNK_ENTRY);
+        object.put(CHUNKED_MAGIC).putInt(name.length).put(name)
+                .putLong(getData().length).putInt(chunks.size());
+        for (Chunk chunk : chunks) {
+            object.put(HEX.parseHex(chunk.sha1)).putInt(chunk.length);
+        }
+        return object.array();
+    }
+
+    /**
+     * Read the header of a stored blob
+     * Runtime: O(1), O(C) with C chunks
+     *
+     * @param channel - The object file
+     * @return The header, null if the blob is stored serialized
+     * @throws IOException - When IO system fails, or the header is corrupt
+     */
+    static Header readHeader(FileChannel channel) throws IOException {
+        ByteBuffer fixed = ByteBuffer.allocate(FIXED_HEADER);
+        readFully(channel, fixed, 0);
+        fixed.flip();
+        if (fixed.limit() < FIXED_HEADER) {
+            return null;
+        }
+        byte[] magic = new byte[MAGIC.length];
+        fixed.get(magic);
+        boolean chunked = Arrays.equals(magic, CHUNKED_MAGIC);
+        if (!chunked && !Arrays.equals(magic, MAGIC)) {
+            return null;
+        }
+        // Checked before allocating, a corrupt length mustn't exhaust the heap
+        int nameLength = fixed.getInt();
+        if (nameLength < 0 || nameLength > channel.size() - FIXED_HEADER) {
+            throw new IOException("Bad filename length " + nameLength + " in blob header");
+        }
+        ByteBuffer name = ByteBuffer.allocate(nameLength);
+        readFully(channel, name, FIXED_HEADER);
+        String filename = new String(name.array(), StandardCharsets.UTF_8);
+        long offset = FIXED_HEADER + name.limit();
+        if (!chunked) {
+            return new Header(filename, offset, channel.size() - offset, null);
+        }
+        long listLength = channel.size() - offset;
+        if (listLength < Long.BYTES + Integer.BYTES || listLength > Integer.MAX_VALUE) {
+            throw new IOException("Bad chunk list length " + listLength + " in blob header");
+        }
+        ByteBuffer list = ByteBuffer.allocate((int) listLength);
+        readFully(channel, list, offset);
+        list.flip();
+        long length = list.getLong();
+        int count = list.getInt();
+        if (length < 0 || count < 0 || count > list.remaining() / CHUNK_ENTRY) {
+            throw new IOException("Bad chunk list of " + count + " chunks in blob header");
+        }
+        List<Chunk> chunks = new ArrayList<>(count);
+        byte[] sha1 = new byte[20];
+        for (int i = 0; i < count; i++) {
+            list.get(sha1);
+            chunks.add(new Chunk(HEX.formatHex(sha1), list.getInt()));
+        }
+        return new Header(filename, -1, length, Collections.unmodifiableList(chunks));
+    }
+
+    /**
+     * Decode a raw blob
+     * Runtime: O(N) with blob of size N
+     *
+     * @param objectFile - The object file, objects/[2 digits]/[38 digits]
+     * @return The blob, null if the blob is stored serialized
+     * @throws IOException - When IO system fails
+     */
+    static Blob readRaw(File objectFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(objectFile.toPath(), StandardOpenOption.READ)) {
+            Header header = readHeader(channel);
+            if (header == null) {
+                return null;
+            }
+            String sha1 = objectFile.getParentFile().getName() + objectFile.getName();
+            if (header.chunks != null) {
+                ChunkStore chunks = ChunkStore.forObjects(objectFile.getParentFile().getParentFile());
+                return new Blob(header.filename, sha1, chunks.read(header.chunks, header.contentLength));
+            }
+            ByteBuffer data = ByteBuffer.allocate(Math.toIntExact(header.contentLength));
+            readFully(channel, data, header.contentOffset);
+            return new Blob(header.filename, sha1, data.array());
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                break;
+            }
+            position += n;
+        }
+    }
+
     /**
      * Check whether two blobs are equal
      * Runtime: O(1)
@@ -66,6 +272,9 @@ public class Blob implements GitletObject {
     }
 
     public final byte[] getData() {
+        if (this.data == null) {
+            this.data = Repository.readBlobObject(this.sha1).getData();
+        }
         return this.data;
     }
 
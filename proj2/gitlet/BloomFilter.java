@@ -0,0 +1,84 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A fixed-size Bloom filter of strings.
+ * <p>
+ * mightContain() never says false for a string that was added,
+ * and says true for one that wasn't with a probability of about 1%
+ * (10 bits and 7 hash functions per string).
+ *
+ * @author Crvena
+ */
+class BloomFilter {
+    static final int BITS_PER_ENTRY = 10;
+    private static final int NUM_HASHES = 7;
+
+    private final long[] words;
+
+    /**
+     * Create an empty filter sized for EXPECTED entries
+     */
+    BloomFilter(int expected) {
+        this.words = new long[Math.max(1, (expected * BITS_PER_ENTRY + 63) / 64)];
+    }
+
+    /**
+     * Wrap the WORDS of a filter read back from disk
+     */
+    BloomFilter(long[] words) {
+        this.words = words;
+    }
+
+    void add(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        long numBits = (long) words.length * 64;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int bit = (int) (Integer.toUnsignedLong(h1 + i * h2) % numBits);
+            words[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * Runtime: O(L) with key of length L
+     * @return false if KEY was definitely never added
+     */
+    boolean mightContain(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        long numBits = (long) words.length * 64;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int bit = (int) (Integer.toUnsignedLong(h1 + i * h2) % numBits);
+            if ((words[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    long[] getWords() {
+        return words;
+    }
+
+    /**
+     * 64-bit FNV-1a of the UTF-8 bytes, finished with a murmur mix
+     * so that both halves are usable as independent hashes
+     */
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,347 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * The objects one repository is missing to get a branch from another,
+ * and their transfer as one stream.
+ * <p>
+ * Negotiation walks the commit graph of the source back from the wanted
+ * commit, and stops at every commit the target has: those, and their
+ * history, are the haves. Only the blobs the missing commits introduce
+ * (differ from their first parent) are candidates, and only those the
+ * target doesn't have are sent, along with the chunks of chunked blobs the
+ * target doesn't have (see ChunkStore), so a slightly edited large file
+ * only sends the chunks that changed.
+ * <p>
+ * The bundle is a single stream:
+ * <pre>
+ * "GLBNDL2\n" | record count (4) | { type (1) | sha1 (20) | size (8) | file bytes }*
+ * </pre>
+ * where type is 'K' for a chunk and 'O' for an object. Chunks come first,
+ * then blobs, then commits parents first, so the target never holds a blob
+ * whose chunks are missing, or a commit whose history or files are, even
+ * after a crash midway.
+ * The source writes it into a pipe on its own thread while the target
+ * unpacks it, and object files are copied verbatim, never decoded.
+ *
+ * @author Crvena
+ */
+class Bundle {
+    private static final byte[] MAGIC = {'G', 'L', 'B', 'N', 'D', 'L', '2', '\n'};
+    private static final byte CHUNK = 'K';
+    private static final byte OBJECT = 'O';
+    private static final int RECORD_HEADER = 1 + 20 + 8;
+
+    /**
+     * One side of a transfer: an object store, its commit graph and branch logs
+     */
+    static final class Store {
+        final File objectsDir;
+        final ChunkStore chunks;
+        final CommitGraph graph;
+        final Function<String, Commit> commits;
+        final File logsDir;
+
+        /**
+         * @param objectsDir - The objects directory
+         * @param graph      - The commit graph index of the store
+         * @param commits    - Reads a commit of the store by sha1
+         * @param logsDir    - The directory of branch logs, logs/refs/heads
+         */
+        Store(File objectsDir, CommitGraph graph, Function<String, Commit> commits, File logsDir) {
+            this.objectsDir = objectsDir;
+            this.chunks = ChunkStore.forObjects(objectsDir);
+            this.graph = graph;
+            this.commits = commits;
+            this.logsDir = logsDir;
+        }
+
+        boolean has(String sha1) {
+            return objectFile(sha1).isFile();
+        }
+
+        File objectFile(String sha1) {
+            return Utils.join(objectsDir, sha1.substring(0, 2), sha1.substring(2));
+        }
+
+        File file(byte type, String sha1) {
+            return type == CHUNK ? chunks.chunkFile(sha1) : objectFile(sha1);
+        }
+
+        /**
+         * @return The parents of a commit, through the graph if it's indexed
+         */
+        List<String> parentsOf(String sha1) {
+            CommitGraph.Entry entry = graph.find(sha1);
+            if (entry != null) {
+                return Arrays.asList(entry.parentSha1, entry.mergedParentSha1);
+            }
+            Commit commit = commits.apply(sha1);
+            return Arrays.asList(commit.getParentSha1(), commit.getMergedParentSha1());
+        }
+    }
+
+    private final List<String> commits;
+    private final List<String> blobs;
+    /* The missing commits, decoded once while negotiating */
+    private final Map<String, Commit> decoded;
+
+    private Bundle(List<String> commits, List<String> blobs, Map<String, Commit> decoded) {
+        this.commits = commits;
+        this.blobs = blobs;
+        this.decoded = decoded;
+    }
+
+    /**
+     * Find what TARGET needs from SOURCE to have the commit WANT with its history
+     * Runtime: O(C * F) with C missing commits of F files
+     *
+     * @param source - The store that has WANT
+     * @param target - The store to bring up to date
+     * @param want   - Sha1 of the wanted commit
+     * @return The missing commits and blobs
+     */
+    static Bundle negotiate(Store source, Store target, String want) {
+        Set<String> missing = new LinkedHashSet<>();
+        Set<String> visited = new HashSet<>();
+        Set<String> haves = new HashSet<>();
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(want);
+        // Depth first, a commit is listed after all its missing parents
+        while (!stack.isEmpty()) {
+            String sha1 = stack.peek();
+            if (visited.add(sha1)) {
+                if (target.has(sha1)) {
+                    haves.add(sha1);
+                    stack.pop();
+                    continue;
+                }
+                for (String parent : source.parentsOf(sha1)) {
+                    if (parent != null && !visited.contains(parent)) {
+                        stack.push(parent);
+                    }
+                }
+            } else {
+                stack.pop();
+                if (!haves.contains(sha1)) {
+                    missing.add(sha1);
+                }
+            }
+        }
+
+        List<String> commits = new ArrayList<>(missing);
+        Map<String, Commit> decoded = new HashMap<>();
+        Set<String> introduced = new LinkedHashSet<>();
+        for (String sha1 : commits) {
+            Commit commit = decoded.computeIfAbsent(sha1, source.commits);
+            Map<String, String> parentBlobs = commit.getParentSha1() != null
+                    ? decoded.computeIfAbsent(commit.getParentSha1(), source.commits).getAllBlobs()
+                    : Collections.emptyMap();
+            for (Map.Entry<String, String> entry : commit.getAllBlobs().entrySet()) {
+                if (!entry.getValue().equals(parentBlobs.get(entry.getKey()))) {
+                    introduced.add(entry.getValue());
+                }
+            }
+        }
+        List<String> blobs = new ArrayList<>();
+        for (String sha1 : introduced) {
+            if (!target.has(sha1)) {
+                blobs.add(sha1);
+            }
+        }
+        decoded.keySet().retainAll(missing);
+        return new Bundle(commits, blobs, decoded);
+    }
+
+    /**
+     * @return A bundle of just the objects SHA1S, e.g. blobs a partial clone is missing
+     */
+    static Bundle ofObjects(List<String> sha1s) {
+        return new Bundle(Collections.emptyList(), sha1s, Collections.emptyMap());
+    }
+
+    /**
+     * @return The same commits without any blob, for a partial clone
+     */
+    Bundle withoutBlobs() {
+        return new Bundle(commits, Collections.emptyList(), decoded);
+    }
+
+    /**
+     * @return The missing commits, parents first
+     */
+    List<String> getCommits() {
+        return commits;
+    }
+
+    List<String> getBlobs() {
+        return blobs;
+    }
+
+    boolean isEmpty() {
+        return commits.isEmpty() && blobs.isEmpty();
+    }
+
+    /**
+     * Stream the objects from SOURCE to TARGET through a pipe,
+     * with SOURCE writing on a thread of its own
+     * Runtime: O(N) with N bytes of objects
+     *
+     * @throws IOException - When IO system fails on either side
+     */
+    void transfer(Store source, Store target) throws IOException {
+        List<String> chunks = missingChunks(source, target);
+        Pipe pipe = Pipe.open();
+        IOException[] failure = new IOException[1];
+        Thread sender = new Thread(() -> {
+            try (Pipe.SinkChannel sink = pipe.sink()) {
+                write(source, chunks, sink);
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        }, "gitlet-bundle");
+        sender.start();
+        IOException received = null;
+        try (Pipe.SourceChannel in = pipe.source()) {
+            read(target, in);
+        } catch (IOException e) {
+            // Closing the pipe stops the sender too
+            received = e;
+        } finally {
+            try {
+                sender.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // A sender failure ends the stream early, so it's the real cause
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        if (received != null) {
+            throw received;
+        }
+    }
+
+    /**
+     * Index the transferred commits in TARGET and log them on BRANCH there
+     * Runtime: O(C * F) with C commits of F files
+     */
+    void record(Store target, String branch) throws IOException {
+        File log = Utils.join(target.logsDir, branch);
+        for (String sha1 : commits) {
+            Commit commit = decoded.get(sha1);
+            target.graph.add(commit);
+            Repository.appendCommitLog(log, commit);
+        }
+    }
+
+    /**
+     * @return The chunks of the blobs to send that TARGET doesn't have
+     */
+    private List<String> missingChunks(Store source, Store target) throws IOException {
+        Set<String> missing = new LinkedHashSet<>();
+        for (String sha1 : blobs) {
+            try (FileChannel object = FileChannel.open(source.objectFile(sha1).toPath(),
+                    StandardOpenOption.READ)) {
+                Blob.Header header = Blob.readHeader(object);
+                if (header == null || header.chunks == null) {
+                    continue;
+                }
+                for (Blob.Chunk chunk : header.chunks) {
+                    if (!target.chunks.has(chunk.sha1)) {
+                        missing.add(chunk.sha1);
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(missing);
+    }
+
+    private void write(Store source, List<String> chunks, WritableByteChannel out)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(MAGIC.length + 4);
+        header.put(MAGIC).putInt(chunks.size() + blobs.size() + commits.size()).flip();
+        writeFully(out, header);
+        for (String sha1 : chunks) {
+            writeRecord(source, CHUNK, sha1, out);
+        }
+        for (List<String> objects : List.of(blobs, commits)) {
+            for (String sha1 : objects) {
+                writeRecord(source, OBJECT, sha1, out);
+            }
+        }
+    }
+
+    private static void writeRecord(Store source, byte type, String sha1, WritableByteChannel out)
+            throws IOException {
+        try (FileChannel file = FileChannel.open(source.file(type, sha1).toPath(),
+                StandardOpenOption.READ)) {
+            long size = file.size();
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER);
+            record.put(type).put(CommitGraph.fromHex(sha1)).putLong(size).flip();
+            writeFully(out, record);
+            long done = 0;
+            while (done < size) {
+                done += file.transferTo(done, size - done, out);
+            }
+        }
+    }
+
+    private static void read(Store target, ReadableByteChannel in) throws IOException {
+        ByteBuffer header = readFully(in, MAGIC.length + 4);
+        byte[] magic = new byte[MAGIC.length];
+        header.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a gitlet bundle");
+        }
+        int count = header.getInt();
+        for (int i = 0; i < count; i++) {
+            ByteBuffer record = readFully(in, RECORD_HEADER);
+            byte type = record.get();
+            if (type != CHUNK && type != OBJECT) {
+                throw new IOException("Bad bundle record");
+            }
+            byte[] id = new byte[20];
+            record.get(id);
+            long size = record.getLong();
+            LockManager.writeObject(target.file(type, CommitGraph.toHex(id)), in, size);
+        }
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static ByteBuffer readFully(ReadableByteChannel in, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) < 0) {
+                throw new IOException("Bundle ended early");
+            }
+        }
+        return buffer.flip();
+    }
+}
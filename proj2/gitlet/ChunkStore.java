@@ -0,0 +1,186 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Pieces of large blobs, stored once however many blobs share them.
+ * <p>
+ * A blob of at least THRESHOLD bytes is cut into chunks with FastCDC
+ * (content-defined chunking): a gear hash rolls over the content and a
+ * chunk ends where the hash has enough zero bits. Boundaries depend on the
+ * bytes around them only, so an edit moves the boundaries near it and no
+ * other: the other chunks of the new version are the same as before, and
+ * storage grows by about the size of the edit. Chunks are MIN_SIZE to
+ * MAX_SIZE bytes, AVG_SIZE on average, with normalized chunking (a harder
+ * mask before AVG_SIZE, an easier one after) to keep sizes close to it.
+ * <p>
+ * Chunk files are the bytes of the chunk, named by their sha1, in
+ * chunks/[2 digits]/[38 digits] next to objects/. The blob object then
+ * only lists its chunks, see Blob.
+ *
+ * @author Crvena
+ */
+class ChunkStore {
+    /**
+     * Blobs at least this big are stored as chunks
+     */
+    static final int THRESHOLD = 1 << 20;
+    static final int MIN_SIZE = 16 << 10;
+    static final int AVG_SIZE = 64 << 10;
+    static final int MAX_SIZE = 256 << 10;
+
+    /* One random value a byte. Changing the table or seed moves every boundary. */
+    private static final long[] GEAR = new long[256];
+    /* log2(AVG_SIZE) + 2 and - 2 bits, the highest ones: the gear hash mixes those best */
+    private static final long MASK_HARD = -1L << (64 - 18);
+    private static final long MASK_EASY = -1L << (64 - 14);
+
+    static {
+        Random random = new Random(0x676974_6c6574L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final File chunksDir;
+
+    /**
+     * @param chunksDir - The chunks directory, .gitlet/chunks
+     */
+    ChunkStore(File chunksDir) {
+        this.chunksDir = chunksDir;
+    }
+
+    /**
+     * @return The chunk store next to the object store OBJECTSDIR
+     */
+    static ChunkStore forObjects(File objectsDir) {
+        return new ChunkStore(new File(objectsDir.getParentFile(), "chunks"));
+    }
+
+    File getDir() {
+        return chunksDir;
+    }
+
+    File chunkFile(String sha1) {
+        return Utils.join(chunksDir, sha1.substring(0, 2), sha1.substring(2));
+    }
+
+    boolean has(String sha1) {
+        return chunkFile(sha1).isFile();
+    }
+
+    /**
+     * Find where the chunk starting at START ends
+     * Runtime: O(MAX_SIZE)
+     *
+     * @param data  - The content
+     * @param start - Where the chunk starts
+     * @param end   - Where the content ends
+     * @return The end of the chunk, exclusive
+     */
+    static int cut(byte[] data, int start, int end) {
+        int length = end - start;
+        if (length <= MIN_SIZE) {
+            return end;
+        }
+        int limit = Math.min(length, MAX_SIZE);
+        int normal = Math.min(AVG_SIZE, limit);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[data[start + i] & 0xff];
+            if ((hash & MASK_HARD) == 0) {
+                return start + i + 1;
+            }
+        }
+        for (; i < limit; i++) {
+            hash = (hash << 1) + GEAR[data[start + i] & 0xff];
+            if ((hash & MASK_EASY) == 0) {
+                return start + i + 1;
+            }
+        }
+        return start + limit;
+    }
+
+    /**
+     * Cut DATA into chunks and store the ones not there yet
+     * Runtime: O(N) with DATA of size N
+     *
+     * @return The chunks, in order
+     * @throws IOException - When IO system fails
+     */
+    List<Blob.Chunk> write(byte[] data) throws IOException {
+        List<Blob.Chunk> chunks = new ArrayList<>();
+        for (int start = 0; start < data.length; ) {
+            int end = cut(data, start, data.length);
+            byte[] chunk = Arrays.copyOfRange(data, start, end);
+            String sha1 = Utils.sha1((Object) chunk);
+            LockManager.writeObject(chunkFile(sha1), chunk);
+            chunks.add(new Blob.Chunk(sha1, chunk.length));
+            start = end;
+        }
+        return chunks;
+    }
+
+    /**
+     * Read CHUNKS back into one array
+     * Runtime: O(N) with content of size N
+     *
+     * @param size - The total size of CHUNKS
+     * @throws IOException - When IO system fails, or a chunk is missing
+     */
+    byte[] read(List<Blob.Chunk> chunks, long size) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(Math.toIntExact(size));
+        for (Blob.Chunk chunk : chunks) {
+            try (FileChannel channel = open(chunk)) {
+                while (channel.read(data) > 0) {
+                    // Until the end of the chunk
+                }
+            }
+        }
+        if (data.hasRemaining()) {
+            throw new IOException("Chunks are shorter than their blob");
+        }
+        return data.array();
+    }
+
+    /**
+     * Copy CHUNKS to OUT in order, without them passing through the heap
+     * when OUT is a file or pipe (see FileChannel.transferTo)
+     * Runtime: O(N) with content of size N
+     *
+     * @throws IOException - When IO system fails, or a chunk is missing
+     */
+    void transfer(List<Blob.Chunk> chunks, WritableByteChannel out) throws IOException {
+        for (Blob.Chunk chunk : chunks) {
+            try (FileChannel channel = open(chunk)) {
+                long position = 0;
+                while (position < chunk.length) {
+                    long n = channel.transferTo(position, chunk.length - position, out);
+                    if (n <= 0 && position >= channel.size()) {
+                        throw new IOException("Chunk " + chunk.sha1 + " ended early");
+                    }
+                    position += n;
+                }
+            }
+        }
+    }
+
+    FileChannel open(Blob.Chunk chunk) throws IOException {
+        File file = chunkFile(chunk.sha1);
+        if (!file.isFile()) {
+            throw new IOException("Missing chunk " + chunk.sha1);
+        }
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+}
@@ -1,5 +1,11 @@
 package gitlet;
 
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
 public class Command {
     static void init() {
         Repository.init();
@@ -46,10 +52,41 @@ public class Command {
         }
     }
 
+    /**
+     * Usage: gitlet log [-n count] [--since date] [--until date] [--all] [-- file name]
+     * Dates are yyyy-MM-dd or "yyyy-MM-dd HH:mm:ss", in local time.
+     * @param args Commandline arguments
+     */
     static void log(String[] args) {
-        // TODO: Branch
-        validateArgCount(args, 1);
-        Repository.log();
+        int maxCount = Integer.MAX_VALUE;
+        Date since = null;
+        Date until = null;
+        boolean all = false;
+        String path = null;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "-n" -> maxCount = parseCount(args, ++i);
+                case "--since" -> since = parseDate(args, ++i);
+                case "--until" -> until = parseDate(args, ++i);
+                case "--all" -> all = true;
+                case "--" -> {
+                    validateArgCount(args, i + 2);
+                    path = args[++i];
+                }
+                default -> ErrorHandler.handleInvalidOperands();
+            }
+        }
+        Repository.log(maxCount, since, until, all, path);
+    }
+
+    static void blame(String[] args) {
+        validateArgCount(args, 2);
+        String filename = args[1];
+        try {
+            Repository.blame(filename);
+        } catch (GitletException e) {
+            ErrorHandler.handleGitletException(e);
+        }
     }
 
     static void branch(String[] args) {
@@ -72,6 +109,168 @@ public class Command {
         }
     }
 
+    static void packRefs(String[] args) {
+        validateArgCount(args, 1);
+        Repository.packRefs();
+    }
+
+    /**
+     * Usage: gitlet archive [--gzip] [--prefetch threads] [commit id or branch] > out.tar
+     * @param args Commandline arguments
+     */
+    static void archive(String[] args) {
+        boolean gzip = false;
+        int threads = 0;
+        int i = 1;
+        for (; i < args.length - 1; i++) {
+            switch (args[i]) {
+                case "--gzip" -> gzip = true;
+                case "--prefetch" -> threads = parseCount(args, ++i);
+                default -> ErrorHandler.handleInvalidOperands();
+            }
+        }
+        validateArgCount(args, i + 1);
+        try {
+            Repository.archive(args[i], gzip, threads);
+        } catch (GitletException e) {
+            ErrorHandler.handleGitletException(e);
+        }
+    }
+
+    /**
+     * Usage: gitlet sparse-checkout set [pattern]...
+     *        gitlet sparse-checkout disable
+     *        gitlet sparse-checkout list
+     * @param args Commandline arguments
+     */
+    static void sparseCheckout(String[] args) {
+        if (args.length < 2) {
+            ErrorHandler.handleInvalidOperands();
+        }
+        try {
+            switch (args[1]) {
+                case "set" -> Repository.setSparseCheckout(
+                        Arrays.asList(args).subList(2, args.length));
+                case "disable" -> {
+                    validateArgCount(args, 2);
+                    Repository.setSparseCheckout(Collections.emptyList());
+                }
+                case "list" -> {
+                    validateArgCount(args, 2);
+                    Repository.printSparseCheckout();
+                }
+                default -> ErrorHandler.handleInvalidOperands();
+            }
+        } catch (GitletException e) {
+            ErrorHandler.handleGitletException(e);
+        }
+    }
+
+    /**
+     * Usage: gitlet durability [none | objects | full]
+     * Without a level, prints the current one.
+     * @param args Commandline arguments
+     */
+    static void durability(String[] args) {
+        if (args.length > 2) {
+            ErrorHandler.handleInvalidOperands();
+        }
+        try {
+            if (args.length == 2) {
+                Repository.setDurability(args[1]);
+            } else {
+                Repository.printDurability();
+            }
+        } catch (GitletException e) {
+            ErrorHandler.handleGitletException(e);
+        }
+    }
+
+    /**
+     * Usage: gitlet clone [--partial] [remote directory]/.gitlet
+     * @param args Commandline arguments
+     */
+    static void cloneRemote(String[] args) {
+        boolean partial = args.length == 3 && args[1].equals("--partial");
+        if (args.length != 2 && !partial) {
+            ErrorHandler.handleInvalidOperands();
+        }
+        try {
+            Repository.cloneRemote(args[args.length - 1], partial);
+        } catch (GitletException e) {
+            ErrorHandler.handleGitletException(e);
+        }
+    }
+
+    static void addRemote(String[] args) {
+        validateArgCount(args, 3);
+        try {
+            Repository.addRemote(args[1], args[2]);
+        } catch (GitletException e) {
+            ErrorHandler.handleGitletException(e);
+        }
+    }
+
+    static void rmRemote(String[] args) {
+        validateArgCount(args, 2);
+        try {
+            Repository.removeRemote(args[1]);
+        } catch (GitletException e) {
+            ErrorHandler.handleGitletException(e);
+        }
+    }
+
+    static void fetch(String[] args) {
+        validateArgCount(args, 3);
+        try {
+            Repository.fetch(args[1], args[2]);
+        } catch (GitletException e) {
+            ErrorHandler.handleGitletException(e);
+        }
+    }
+
+    static void push(String[] args) {
+        validateArgCount(args, 3);
+        try {
+            Repository.push(args[1], args[2]);
+        } catch (GitletException e) {
+            ErrorHandler.handleGitletException(e);
+        }
+    }
+
+    static void pull(String[] args) {
+        validateArgCount(args, 3);
+        try {
+            Repository.pull(args[1], args[2]);
+        } catch (GitletException e) {
+            ErrorHandler.handleGitletException(e);
+        }
+    }
+
+    static void fsck(String[] args) {
+        validateArgCount(args, 1);
+        Repository.fsck();
+    }
+
+    /**
+     * Usage: gitlet gc [--prune age], also gitlet prune [--prune age]
+     * The age is "now" or a number with a unit of s, m, h, d or w, two weeks by default.
+     * @param args Commandline arguments
+     */
+    static void gc(String[] args) {
+        long grace = GarbageCollector.DEFAULT_GRACE_MILLIS;
+        if (args.length == 3 && args[1].equals("--prune")) {
+            grace = parseAge(args[2]);
+        } else if (args.length != 1) {
+            ErrorHandler.handleInvalidOperands();
+        }
+        try {
+            Repository.gc(grace);
+        } catch (GitletException e) {
+            ErrorHandler.handleGitletException(e);
+        }
+    }
+
     /**
      * Usage:
      * 1. gitlet checkout -- [file name]
@@ -126,9 +325,17 @@ public class Command {
         }
     }
 
+    /**
+     * Usage: gitlet status [--renames]
+     * With --renames, staged removes and adds that are renames get their own section.
+     * @param args Commandline arguments
+     */
     static void status(String[] args) {
-        validateArgCount(args, 1);
-        Repository.printStatus();
+        boolean renames = args.length == 2 && args[1].equals("--renames");
+        if (args.length != 1 && !renames) {
+            ErrorHandler.handleInvalidOperands();
+        }
+        Repository.printStatus(renames);
     }
 
     static void globalLog(String[] args) {
@@ -146,6 +353,26 @@ public class Command {
         }
     }
 
+    /**
+     * Usage:
+     * 1. gitlet diff                           (head commit against the stage)
+     * 2. gitlet diff [commit id]               (commit against the head commit)
+     * 3. gitlet diff [commit id] [commit id]
+     * @param args Commandline arguments
+     */
+    static void diff(String[] args) {
+        try {
+            switch (args.length) {
+                case 1 -> Repository.diff(null, null);
+                case 2 -> Repository.diff(args[1], Repository.getHeadCommit().getSha1());
+                case 3 -> Repository.diff(args[1], args[2]);
+                default -> ErrorHandler.handleInvalidOperands();
+            }
+        } catch (GitletException e) {
+            ErrorHandler.handleGitletException(e);
+        }
+    }
+
     static void reset(String[] args) {
         validateArgCount(args, 2);
         String commitID = args[1];
@@ -181,6 +408,72 @@ public class Command {
         staged.printBlobInfo();
     }
 
+    /**
+     * Parse ARGS[I] as a non-negative count
+     */
+    private static int parseCount(String[] args, int i) {
+        if (i >= args.length) {
+            ErrorHandler.handleInvalidOperands();
+        }
+        try {
+            int count = Integer.parseInt(args[i]);
+            if (count >= 0) {
+                return count;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through
+        }
+        ErrorHandler.handleInvalidOperands();
+        throw new AssertionError("not reached");
+    }
+
+    /**
+     * Parse ARGS[I] as a date, see log()
+     */
+    private static Date parseDate(String[] args, int i) {
+        if (i >= args.length) {
+            ErrorHandler.handleInvalidOperands();
+        }
+        for (String pattern : new String[]{"yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd"}) {
+            SimpleDateFormat format = new SimpleDateFormat(pattern);
+            format.setLenient(false);
+            ParsePosition position = new ParsePosition(0);
+            Date date = format.parse(args[i], position);
+            if (date != null && position.getIndex() == args[i].length()) {
+                return date;
+            }
+        }
+        ErrorHandler.handleInvalidOperands();
+        throw new AssertionError("not reached");
+    }
+
+    /**
+     * @return The age in milliseconds, e.g. "now" is 0 and "2d" is two days
+     */
+    private static long parseAge(String age) {
+        if (age.equals("now")) {
+            return 0;
+        }
+        long unit = switch (age.isEmpty() ? ' ' : age.charAt(age.length() - 1)) {
+            case 's' -> 1000L;
+            case 'm' -> 60 * 1000L;
+            case 'h' -> 60 * 60 * 1000L;
+            case 'd' -> 24 * 60 * 60 * 1000L;
+            case 'w' -> 7 * 24 * 60 * 60 * 1000L;
+            default -> 0;
+        };
+        try {
+            long count = Long.parseLong(age.substring(0, age.length() - 1));
+            if (unit > 0 && count >= 0) {
+                return count * unit;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through
+        }
+        ErrorHandler.handleInvalidOperands();
+        throw new AssertionError("not reached");
+    }
+
     private static void validateArgCount(String[] args, int argc) {
         if (args.length != argc) {
             ErrorHandler.handleInvalidOperands();
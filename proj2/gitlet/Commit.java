@@ -4,6 +4,7 @@ package gitlet;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.io.Serializable;
 
@@ -29,13 +30,18 @@ public class Commit implements GitletObject {
      * variable is used. We've provided one example for `message`.
      */
 
+    /* Pinned, so commits written since the format moved to parent ids
+       still read whatever methods are added later */
+    private static final long serialVersionUID = 3392972721912162638L;
     private static final Date INIT_TIMESTAMP = new Date(0);
     private static final String INIT_MESSAGE = "initial commit";
     /**
-     * Parent(s) of the commit
+     * Parent(s) of the commit, by sha1
+     * Only the ids are serialized, so reading a commit reads one object
+     * instead of its whole history. See getParent().
      */
-    private final Commit parent;
-    private final Commit mergedParent;
+    private String parentSha1;
+    private final String mergedParentSha1;
     /**
      * The name-blobsha1 pairs in this Commit.
      */
@@ -74,8 +80,8 @@ public class Commit implements GitletObject {
         this.blobs = new HashMap<>();
         this.added = new HashMap<>();
         this.removed = new HashSet<>();
-        this.parent = null;
-        this.mergedParent = null;
+        this.parentSha1 = null;
+        this.mergedParentSha1 = null;
     }
 
     /**
@@ -86,8 +92,8 @@ public class Commit implements GitletObject {
         this.blobs = parent.blobs;
         this.added = new HashMap<>();
         this.removed = new HashSet<>();
-        this.parent = parent;
-        this.mergedParent = null;
+        this.parentSha1 = parent.getSha1();
+        this.mergedParentSha1 = null;
         this.branch = "staged";
         this.sha1 = "0000000000000000000000000000000000000000";
         this.staged = true;
@@ -110,20 +116,24 @@ public class Commit implements GitletObject {
         for (Map.Entry<String, Blob> entry : staged.added.entrySet()) {
             this.blobs.put(entry.getKey(), entry.getValue().getSha1());
         }
-        this.parent = staged.parent;
-        this.mergedParent = target;
+        this.parentSha1 = staged.parentSha1;
+        this.mergedParentSha1 = target != null ? target.getSha1() : null;
         this.branch = branch;
         this.message = message;
         this.timestamp = timestamp;
-        this.sha1 = Utils.sha1(
-                Utils.serialize((Serializable) this.blobs),
-                this.parent != null
-                        ? this.parent.getSha1()
+        this.sha1 = computeSha1(this.blobs);
+        this.staged = false;
+    }
+
+    private String computeSha1(Map<String, String> blobMap) {
+        return Utils.sha1(
+                Utils.serialize((Serializable) blobMap),
+                this.parentSha1 != null
+                        ? this.parentSha1
                         : "0000000000000000000000000000000000000000",
                 this.message,
                 this.timestamp.toString()
         );
-        this.staged = false;
     }
 
     /**
@@ -196,15 +206,14 @@ public class Commit implements GitletObject {
         assert blob != null;
         String filename = blob.getFilename();
         Blob stagedBlob = this.added.get(filename);
+        // Blobs are equal when their sha1 is, no need to read the committed one
         String existingSha1 = this.blobs.get(filename);
-        Blob existing = existingSha1 != null
-                ? Repository.readBlobObject(existingSha1) : null;
 
         if (stagedBlob == null || !blob.equals(stagedBlob)) {
             // Add only when
             // 1. file not found in stage
             // 2. file not equal staged
-            if (blob.equals(existing)) {
+            if (blob.getSha1().equals(existingSha1)) {
                 // Remove from staged
                 this.added.remove(filename);
             } else {
@@ -216,6 +225,35 @@ public class Commit implements GitletObject {
         return false;
     }
 
+    /**
+     * Set the stage state of one file, see StageJournal
+     * Runtime: O(1)
+     *
+     * @param filename - The file
+     * @param blob     - The blob it's staged as, null if not staged for addition
+     * @param remove   - Whether it's staged for removal
+     */
+    void restage(String filename, Blob blob, boolean remove) {
+        assert this.staged;
+        this.added.remove(filename);
+        this.removed.remove(filename);
+        if (blob != null) {
+            this.added.put(filename, blob);
+        }
+        if (remove) {
+            this.removed.add(filename);
+        }
+    }
+
+    /**
+     * Let go of the content of the added blobs, which must be in the object
+     * store, so that the stage serializes to a few bytes a file
+     */
+    void unloadAddedBlobs() {
+        assert this.staged;
+        this.added.replaceAll((filename, blob) -> Blob.stored(filename, blob.getSha1()));
+    }
+
     /**
      * Readd a file from REMOVED
      *
@@ -280,6 +318,10 @@ public class Commit implements GitletObject {
         return this.staged;
     }
 
+    public final Blob getAddedBlob(String filename) {
+        return this.added.get(filename);
+    }
+
     public final boolean isInAdded(String filename) {
         return this.added.containsKey(filename);
     }
@@ -350,13 +392,24 @@ public class Commit implements GitletObject {
         return this.added.values();
     }
 
+    public final Set<String> getRemovedFiles() {
+        return this.removed;
+    }
+
     public final Map<String, String> getAllBlobs() {
         return this.blobs;
     }
 
-    public void updateBlobs(Map<String, String> otherBlobs) {
+    /**
+     * Move the stage onto another head commit, keeping the staged changes.
+     * The next commit will have HEAD as its parent.
+     *
+     * @param head - The head commit of the branch switched to
+     */
+    public void updateHead(Commit head) {
         assert this.staged;
-        this.blobs = otherBlobs;
+        this.blobs = head.blobs;
+        this.parentSha1 = head.getSha1();
     }
 
     /**
@@ -374,6 +427,20 @@ public class Commit implements GitletObject {
      */
     public final SortedMap<String, Repository.UnstagedStatus> getUnstaged(
             Collection<String> filesInWorkSpace
+    ) {
+        return getUnstaged(filesInWorkSpace, filename -> true);
+    }
+
+    /**
+     * Same as above, but a missing file is only deleted if it's checked out
+     *
+     * @param filesInWorkSpace - the collection of files to examine
+     * @param checkedOut       - Whether a file is meant to be in the work space,
+     *                           see SparseCheckout
+     * @return a set of unstaged files mapped to their reason
+     */
+    public final SortedMap<String, Repository.UnstagedStatus> getUnstaged(
+            Collection<String> filesInWorkSpace, Predicate<String> checkedOut
     ) {
         final Set<String> C = this.blobs.keySet();
         final Set<String> R = this.removed;
@@ -410,7 +477,7 @@ public class Commit implements GitletObject {
             }
             for (String fileInStage : all) {
                 // This is where > O(N) can occur
-                if (!F.contains(fileInStage)) {
+                if (!F.contains(fileInStage) && checkedOut.test(fileInStage)) {
                     unstaged.put(fileInStage, Repository.UnstagedStatus.DELETED);
                 }
             }
@@ -425,6 +492,12 @@ public class Commit implements GitletObject {
      * TODO: Improve algorithm
      */
     public final boolean hasUnstaged(Collection<String> filesInWorkSpace) {
+        return hasUnstaged(filesInWorkSpace, filename -> true);
+    }
+
+    public final boolean hasUnstaged(
+            Collection<String> filesInWorkSpace, Predicate<String> checkedOut
+    ) {
         final Set<String> C = this.blobs.keySet();
         final Set<String> R = this.removed;
         final Set<String> A = this.added.keySet();
@@ -459,7 +532,7 @@ public class Commit implements GitletObject {
             }
             for (String fileInStage : all) {
                 // This is where > O(N) can occur
-                if (!F.contains(fileInStage)) {
+                if (!F.contains(fileInStage) && checkedOut.test(fileInStage)) {
                     return true;
                 }
             }
@@ -469,6 +542,36 @@ public class Commit implements GitletObject {
         return false;
     }
 
+    /**
+     * Same logic as getUnstaged(), for a single file
+     * Runtime: O(N) with file of size N, O(1) if it's missing
+     *
+     * @param file        - The file to examine
+     * @param inWorkSpace - Whether it's in the work space
+     * @param checkedOut  - Whether a file is meant to be in the work space
+     * @return Why the file is unstaged, null if it isn't
+     */
+    public final Repository.UnstagedStatus getUnstaged(
+            String file, boolean inWorkSpace, Predicate<String> checkedOut
+    ) {
+        if (!inWorkSpace) {
+            boolean tracked = (this.blobs.containsKey(file) || this.added.containsKey(file))
+                    && !this.removed.contains(file);
+            return tracked && checkedOut.test(file) ? Repository.UnstagedStatus.DELETED : null;
+        }
+        try {
+            Blob tmp = this.added.get(file);
+            String tmpSha1 = tmp != null ? tmp.getSha1() : this.blobs.get(file);
+            if (tmpSha1 == null) {
+                return Repository.UnstagedStatus.NEW;
+            }
+            return tmpSha1.equals(new Blob(file).getSha1()) ? null : Repository.UnstagedStatus.MODIFIED;
+        } catch (IOException e) {
+            ErrorHandler.handleJavaException(e);
+            return null;
+        }
+    }
+
     /**
      * Get the sha1 of a blob
      * Runtime: O(1) with N blobs in BLOBS
@@ -487,17 +590,35 @@ public class Commit implements GitletObject {
     }
 
     /**
+     * Read through the object cache on every call, not kept on this commit,
+     * so a cached commit doesn't pin its ancestors outside the cache's budget
+     * Runtime: O(1) when cached, one object read otherwise
      * @return parent of this commit
      */
     public final Commit getParent() {
-        return this.parent;
+        return this.parentSha1 == null ? null : Repository.readCommitObject(this.parentSha1);
     }
 
     /**
+     * Runtime: O(1) when cached, one object read otherwise
      * @return second parent of this commit
      */
     public Commit getMergedParent() {
-        return this.mergedParent;
+        return this.mergedParentSha1 == null ? null : Repository.readCommitObject(this.mergedParentSha1);
+    }
+
+    /**
+     * @return sha1 of the parent of this commit, null for the initial commit
+     */
+    public final String getParentSha1() {
+        return this.parentSha1;
+    }
+
+    /**
+     * @return sha1 of the second parent of this commit, null if not a merge
+     */
+    public final String getMergedParentSha1() {
+        return this.mergedParentSha1;
     }
 
     /**
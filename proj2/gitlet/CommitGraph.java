@@ -0,0 +1,286 @@
+package gitlet;
+
+import java.io.*;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * A sidecar index of the commit graph: for every commit its parents,
+ * its timestamp and a Bloom filter of the paths changed from its first parent.
+ * <p>
+ * Walking the history through the index never deserializes a commit,
+ * and the filters tell for most commits that a given path wasn't touched
+ * without loading or comparing any manifest.
+ * <p>
+ * The file is append-only, one fixed-layout record a commit:
+ * <pre>
+ * sha1 (20) | flags (1) | parent (20) | merged parent (20) | timestamp (8)
+ *           | filter length in longs (4) | filter words (8 each)
+ * </pre>
+ * Commits that are missing (written before the index existed,
+ * or copied in from elsewhere) are indexed the first time they're asked for.
+ *
+ * @author Crvena
+ */
+class CommitGraph {
+    /**
+     * Commits changing more paths than this get no filter (always "maybe")
+     */
+    static final int MAX_CHANGED_PATHS = 512;
+
+    private static final int HAS_PARENT = 1;
+    private static final int HAS_MERGED_PARENT = 2;
+    private static final int HAS_FILTER = 4;
+    private static final String NULL_SHA1 = "0000000000000000000000000000000000000000";
+
+    /**
+     * What the index knows about one commit
+     */
+    static final class Entry {
+        final String sha1;
+        final String parentSha1;
+        final String mergedParentSha1;
+        final long timestamp;
+        /* Paths changed from the first parent, null when there were too many */
+        final BloomFilter changedPaths;
+
+        private Entry(String sha1, String parentSha1, String mergedParentSha1,
+                      long timestamp, BloomFilter changedPaths) {
+            this.sha1 = sha1;
+            this.parentSha1 = parentSha1;
+            this.mergedParentSha1 = mergedParentSha1;
+            this.timestamp = timestamp;
+            this.changedPaths = changedPaths;
+        }
+
+        /**
+         * @return false if PATH is definitely the same as in the first parent
+         */
+        boolean mayHaveChanged(String path) {
+            return changedPaths == null || changedPaths.mightContain(path);
+        }
+    }
+
+    private final File file;
+    private final Function<String, Commit> loader;
+    private Map<String, Entry> entries;
+
+    /**
+     * @param file   - The index file
+     * @param loader - Reads a commit object by sha1, for commits not indexed yet
+     */
+    CommitGraph(File file, Function<String, Commit> loader) {
+        this.file = file;
+        this.loader = loader;
+    }
+
+    /**
+     * Get the entry of a commit, indexing it first if needed
+     * Runtime: O(1), one object read for commits not indexed yet
+     *
+     * @param sha1 - Full sha1 of the commit
+     * @return The entry of the commit
+     */
+    Entry get(String sha1) {
+        load();
+        Entry entry = entries.get(sha1);
+        if (entry == null) {
+            entry = add(loader.apply(sha1));
+        }
+        return entry;
+    }
+
+    /**
+     * Get the entry of a commit if it's indexed already
+     * Runtime: O(1)
+     *
+     * @param sha1 - Full sha1 of the commit
+     * @return The entry of the commit, null if it isn't indexed
+     */
+    Entry find(String sha1) {
+        load();
+        return entries.get(sha1);
+    }
+
+    /**
+     * Index a commit.
+     * The changed paths are found by comparing its blobs with its first parent's.
+     * Runtime: O(N) with N files in the commit and its parent
+     *
+     * @param commit - A finished commit
+     * @return The new entry
+     */
+    Entry add(Commit commit) {
+        load();
+        Entry existing = entries.get(commit.getSha1());
+        if (existing != null) {
+            return existing;
+        }
+        Map<String, String> blobs = commit.getAllBlobs();
+        Map<String, String> parentBlobs = commit.getParent() != null
+                ? commit.getParent().getAllBlobs()
+                : Collections.emptyMap();
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, String> blob : blobs.entrySet()) {
+            if (!blob.getValue().equals(parentBlobs.get(blob.getKey()))) {
+                changed.add(blob.getKey());
+            }
+        }
+        for (String filename : parentBlobs.keySet()) {
+            if (!blobs.containsKey(filename)) {
+                changed.add(filename);
+            }
+        }
+        BloomFilter filter = null;
+        if (changed.size() <= MAX_CHANGED_PATHS) {
+            filter = new BloomFilter(changed.size());
+            for (String filename : changed) {
+                filter.add(filename);
+            }
+        }
+        Entry entry = new Entry(
+                commit.getSha1(),
+                commit.getParentSha1(),
+                commit.getMergedParentSha1(),
+                commit.getTimestamp().getTime(),
+                filter
+        );
+        append(entry);
+        entries.put(entry.sha1, entry);
+        return entry;
+    }
+
+    /**
+     * Read the whole index into memory, once.
+     * A record cut short by a crash is dropped (and cut off the file),
+     * its commit is simply indexed again later.
+     */
+    private void load() {
+        if (entries != null) {
+            return;
+        }
+        entries = new HashMap<>();
+        if (!file.exists()) {
+            return;
+        }
+        long good = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                Entry entry = readEntry(in);
+                if (entry == null) {
+                    break;
+                }
+                entries.put(entry.sha1, entry);
+                good += recordSize(entry);
+            }
+        } catch (EOFException e) {
+            truncate(good);
+        } catch (IOException e) {
+            throw new GitletException("Broken commit graph: " + e.getMessage());
+        }
+    }
+
+    private static Entry readEntry(DataInputStream in) throws IOException {
+        byte[] sha1 = new byte[20];
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        sha1[0] = (byte) first;
+        in.readFully(sha1, 1, 19);
+        int flags = in.readUnsignedByte();
+        byte[] parent = new byte[20];
+        byte[] merged = new byte[20];
+        in.readFully(parent);
+        in.readFully(merged);
+        long timestamp = in.readLong();
+        long[] words = new long[in.readInt()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = in.readLong();
+        }
+        return new Entry(
+                toHex(sha1),
+                (flags & HAS_PARENT) != 0 ? toHex(parent) : null,
+                (flags & HAS_MERGED_PARENT) != 0 ? toHex(merged) : null,
+                timestamp,
+                (flags & HAS_FILTER) != 0 ? new BloomFilter(words) : null
+        );
+    }
+
+    /**
+     * Drop the entries of all commits not in LIVE, e.g. after they were pruned.
+     * The file is rewritten and atomically replaced.
+     * Runtime: O(N) with N indexed commits
+     *
+     * @param live - Sha1 of the commits to keep
+     */
+    void retain(Set<String> live) throws IOException {
+        load();
+        entries.keySet().retainAll(live);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (Entry entry : entries.values()) {
+                writeEntry(out, entry);
+            }
+        }
+        LockManager.replace(file, bytes.toByteArray());
+    }
+
+    private void append(Entry entry) {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file, true)))) {
+            writeEntry(out, entry);
+        } catch (IOException e) {
+            // The index is only a cache, the commit itself is safe
+            entries.remove(entry.sha1);
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+        int flags = (entry.parentSha1 != null ? HAS_PARENT : 0)
+                | (entry.mergedParentSha1 != null ? HAS_MERGED_PARENT : 0)
+                | (entry.changedPaths != null ? HAS_FILTER : 0);
+        long[] words = entry.changedPaths != null
+                ? entry.changedPaths.getWords() : new long[0];
+        out.write(fromHex(entry.sha1));
+        out.writeByte(flags);
+        out.write(fromHex(entry.parentSha1 != null ? entry.parentSha1 : NULL_SHA1));
+        out.write(fromHex(entry.mergedParentSha1 != null ? entry.mergedParentSha1 : NULL_SHA1));
+        out.writeLong(entry.timestamp);
+        out.writeInt(words.length);
+        for (long word : words) {
+            out.writeLong(word);
+        }
+    }
+
+    private static long recordSize(Entry entry) {
+        int words = entry.changedPaths != null ? entry.changedPaths.getWords().length : 0;
+        return 20 + 1 + 20 + 20 + 8 + 4 + 8L * words;
+    }
+
+    private void truncate(long length) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+        } catch (IOException e) {
+            throw new GitletException("Broken commit graph: " + e.getMessage());
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
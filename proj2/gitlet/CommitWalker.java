@@ -0,0 +1,81 @@
+package gitlet;
+
+import java.util.*;
+
+/**
+ * Walks the history from a set of commits, newest first.
+ * <p>
+ * The walk goes through the commit graph index, so it reads no commit
+ * objects at all: next() loads a commit only when the caller wants it,
+ * and a caller that stops early never touches the rest of the history.
+ * <p>
+ * With FIRSTPARENT set only first parents are followed (the history of one
+ * branch, as printed by log). Otherwise merged parents are followed too and
+ * every commit comes out once, in date order.
+ *
+ * @author Crvena
+ * @see CommitGraph
+ */
+class CommitWalker implements Iterator<Commit> {
+    /**
+     * Commits waiting to be returned, newest on top
+     */
+    private final PriorityQueue<CommitGraph.Entry> queue = new PriorityQueue<>(
+            Comparator.comparingLong((CommitGraph.Entry e) -> e.timestamp).reversed()
+                    .thenComparing(e -> e.sha1)
+    );
+    /**
+     * Sha1 of every commit queued so far
+     */
+    private final Set<String> seen = new HashSet<>();
+    private final CommitGraph graph;
+    private final boolean firstParent;
+
+    /**
+     * @param graph       - The commit graph index to walk
+     * @param starts      - Sha1s of the commits to walk from
+     * @param firstParent - Whether to follow only first parents
+     */
+    CommitWalker(CommitGraph graph, Collection<String> starts, boolean firstParent) {
+        this.graph = graph;
+        this.firstParent = firstParent;
+        for (String sha1 : starts) {
+            push(sha1);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !queue.isEmpty();
+    }
+
+    /**
+     * Runtime: O(log Q) with Q commits queued, plus one object read
+     */
+    @Override
+    public Commit next() {
+        return Repository.readCommitObject(nextEntry().sha1);
+    }
+
+    /**
+     * Same as next(), without reading the commit object
+     * Runtime: O(log Q) with Q commits queued
+     */
+    CommitGraph.Entry nextEntry() {
+        if (queue.isEmpty()) {
+            throw new NoSuchElementException();
+        }
+        CommitGraph.Entry entry = queue.remove();
+        push(entry.parentSha1);
+        if (!firstParent) {
+            push(entry.mergedParentSha1);
+        }
+        return entry;
+    }
+
+    private void push(String sha1) {
+        if (sha1 != null && seen.add(sha1)) {
+            queue.add(graph.get(sha1));
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Line diff of two files.
+ * <p>
+ * Uses the linear space variant of Myers' O(ND) algorithm: it finds the
+ * middle snake of the edit graph and recurses on both halves, so memory stays
+ * O(N + M) and time O((N + M) * D) with D lines changed.
+ *
+ * @author Crvena
+ */
+class Diff {
+    /**
+     * Split a file into lines, each keeping its line terminator
+     * Runtime: O(N) with file of N bytes
+     */
+    static List<String> splitLines(byte[] data) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] == '\n') {
+                lines.add(new String(data, start, i + 1 - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        if (start < data.length) {
+            lines.add(new String(data, start, data.length - start, StandardCharsets.UTF_8));
+        }
+        return lines;
+    }
+
+    /**
+     * Get the blocks of lines two files have in common,
+     * as {start in A, start in B, length}, in order.
+     * Runtime: O((N + M) * D)
+     *
+     * @param a - Lines of the old file
+     * @param b - Lines of the new file
+     * @return The matching blocks
+     */
+    static List<int[]> matchingBlocks(List<String> a, List<String> b) {
+        // Compare small ints instead of strings
+        Map<String, Integer> ids = new HashMap<>();
+        int[] x = new int[a.size()];
+        int[] y = new int[b.size()];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = ids.computeIfAbsent(a.get(i), k -> ids.size());
+        }
+        for (int i = 0; i < y.length; i++) {
+            y[i] = ids.computeIfAbsent(b.get(i), k -> ids.size());
+        }
+        int size = x.length + y.length + 2;
+        Diff diff = new Diff(x, y, new int[2 * size + 1], new int[2 * size + 1]);
+        diff.compare(0, x.length, 0, y.length);
+
+        // Merge adjacent blocks
+        List<int[]> merged = new ArrayList<>();
+        for (int[] block : diff.blocks) {
+            int[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && last[0] + last[2] == block[0] && last[1] + last[2] == block[1]) {
+                last[2] += block[2];
+            } else {
+                merged.add(block);
+            }
+        }
+        return merged;
+    }
+
+    private final int[] a;
+    private final int[] b;
+    /* Furthest x reached on each diagonal, forwards and backwards */
+    private final int[] vf;
+    private final int[] vb;
+    private final List<int[]> blocks = new ArrayList<>();
+
+    private Diff(int[] a, int[] b, int[] vf, int[] vb) {
+        this.a = a;
+        this.b = b;
+        this.vf = vf;
+        this.vb = vb;
+    }
+
+    /**
+     * Add the matching blocks of A[ALO, AHI) and B[BLO, BHI) to BLOCKS
+     */
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        int prefix = 0;
+        while (aLo + prefix < aHi && bLo + prefix < bHi && a[aLo + prefix] == b[bLo + prefix]) {
+            prefix++;
+        }
+        if (prefix > 0) {
+            blocks.add(new int[]{aLo, bLo, prefix});
+            aLo += prefix;
+            bLo += prefix;
+        }
+        int suffix = 0;
+        while (aLo < aHi - suffix && bLo < bHi - suffix
+                && a[aHi - 1 - suffix] == b[bHi - 1 - suffix]) {
+            suffix++;
+        }
+        aHi -= suffix;
+        bHi -= suffix;
+
+        if (aLo < aHi && bLo < bHi) {
+            int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+            int x = snake[0];
+            int y = snake[1];
+            int u = snake[2];
+            int v = snake[3];
+            compare(aLo, x, bLo, y);
+            if (u > x) {
+                blocks.add(new int[]{x, y, u - x});
+            }
+            compare(u, aHi, v, bHi);
+        }
+
+        if (suffix > 0) {
+            blocks.add(new int[]{aHi, bHi, suffix});
+        }
+    }
+
+    /**
+     * Find the middle snake of A[ALO, AHI) and B[BLO, BHI),
+     * both non-empty and differing at both ends.
+     *
+     * @return {x, y, u, v}: the snake goes from (x, y) to (u, v)
+     */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        final int n = aHi - aLo;
+        final int m = bHi - bLo;
+        final int delta = n - m;
+        final boolean odd = (delta & 1) != 0;
+        final int offset = (vf.length - 1) / 2;
+        final int max = (n + m + 1) / 2;
+        vf[offset + 1] = 0;
+        vb[offset + 1] = 0;
+        for (int d = 0; d <= max; d++) {
+            // Forwards from (0, 0)
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && vf[offset + k - 1] < vf[offset + k + 1])) {
+                    x = vf[offset + k + 1];
+                } else {
+                    x = vf[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x++;
+                    y++;
+                }
+                vf[offset + k] = x;
+                int kr = delta - k;
+                if (odd && kr >= -(d - 1) && kr <= d - 1 && x + vb[offset + kr] >= n) {
+                    return new int[]{aLo + x0, bLo + y0, aLo + x, bLo + y};
+                }
+            }
+            // Backwards from (n, m), as forwards on the reversed files
+            for (int kr = -d; kr <= d; kr += 2) {
+                int xr;
+                if (kr == -d || (kr != d && vb[offset + kr - 1] < vb[offset + kr + 1])) {
+                    xr = vb[offset + kr + 1];
+                } else {
+                    xr = vb[offset + kr - 1] + 1;
+                }
+                int yr = xr - kr;
+                int xr0 = xr;
+                int yr0 = yr;
+                while (xr < n && yr < m && a[aHi - 1 - xr] == b[bHi - 1 - yr]) {
+                    xr++;
+                    yr++;
+                }
+                vb[offset + kr] = xr;
+                int k = delta - kr;
+                if (!odd && k >= -d && k <= d && vf[offset + k] + xr >= n) {
+                    return new int[]{aHi - xr, bHi - yr, aHi - xr0, bHi - yr0};
+                }
+            }
+        }
+        throw new AssertionError("Shouldn't happen");
+    }
+}
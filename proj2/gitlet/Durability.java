@@ -0,0 +1,109 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * How much a repository syncs to disk, set per repository in
+ * .gitlet/durability by `gitlet durability [level]`.
+ * <p>
+ * The syncs are grouped at a few barriers instead of one per file write:
+ * <ul>
+ * <li>objects are synced as a batch before a ref or the stage names them
+ *     (ObjectWriter.finish(), LockFile.commit(), StageJournal.append());</li>
+ * <li>a ref is synced before it's renamed into place (LockFile);</li>
+ * <li>with FULL, the stage, stage journal and branch logs are synced too,
+ *     and every directory a name was created in.</li>
+ * </ul>
+ * The commit graph is never synced: it's a cache, rebuilt from the commits.
+ *
+ * @author Crvena
+ */
+enum Durability {
+    /**
+     * Never sync. Fastest, for scratch repositories: after a power loss,
+     * refs may point to objects that never reached the disk.
+     */
+    NONE,
+    /**
+     * Objects, then refs. After a power loss a ref may be back to its old
+     * value, but it never points to a missing object. The default.
+     */
+    OBJECTS,
+    /**
+     * Everything gitlet writes outside the working tree. A command that
+     * returned survives a power loss whole.
+     */
+    FULL;
+
+    static final Durability DEFAULT = OBJECTS;
+
+    /* The level of this repository, read on first use */
+    private static volatile Durability level;
+
+    /**
+     * @return The level of the repository in the working directory
+     */
+    static Durability get() {
+        Durability current = level;
+        if (current == null) {
+            current = load(Repository.DURABILITY_FILE);
+            level = current;
+        }
+        return current;
+    }
+
+    /**
+     * Set the level of the repository in the working directory
+     */
+    static void set(Durability durability) {
+        if (durability == DEFAULT) {
+            Repository.DURABILITY_FILE.delete();
+        } else {
+            Utils.writeContents(Repository.DURABILITY_FILE, durability.toString() + "\n");
+        }
+        level = durability;
+    }
+
+    /**
+     * @param file - The level file, .gitlet/durability
+     * @return The level in FILE, DEFAULT if there's no such file
+     */
+    static Durability load(File file) {
+        if (!file.isFile()) {
+            return DEFAULT;
+        }
+        return parse(Utils.readContentsAsString(file).strip());
+    }
+
+    /**
+     * @throws GitletException - When NAME is not a level
+     */
+    static Durability parse(String name) {
+        for (Durability durability : values()) {
+            if (durability.toString().equals(name)) {
+                return durability;
+            }
+        }
+        throw new GitletException("Unknown durability " + name + ", use none, objects or full.");
+    }
+
+    /**
+     * @return Whether objects are synced before a ref points to them
+     */
+    boolean syncsObjects() {
+        return this != NONE;
+    }
+
+    /**
+     * @return Whether every metadata file and directory is synced
+     */
+    boolean syncsAll() {
+        return this == FULL;
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
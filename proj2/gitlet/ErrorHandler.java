@@ -21,6 +21,17 @@ class ErrorHandler {
         exitWithMessage(msg);
     }
 
+    /**
+     * For commands whose stdout is data, e.g. archive: the message goes to
+     * stderr, where it isn't mixed into the output, and the exit status
+     * tells a pipe the output is incomplete.
+     */
+    static void handleOutputException(Exception e) {
+        System.err.println(e.getMessage() == null || e.getMessage().isEmpty()
+                ? e.toString() : e.getMessage());
+        System.exit(1);
+    }
+
     static void handleGitletException(GitletException e) {
         String msg = e.getMessage();
         if (msg.isEmpty()) {
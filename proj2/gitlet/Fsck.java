@@ -0,0 +1,314 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Formatter;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Integrity check of a repository: refs, HEAD, the stage and every object.
+ * <p>
+ * Each blob is hashed again and compared with its path, and each commit's
+ * recorded id must match its path. A commit isn't hashed again: its hash
+ * covers a serialized HashMap and the date in the local time zone, which
+ * can't be reproduced reliably. The parents and files of each commit must
+ * exist. Objects are checked on a fixed pool,
+ * fed through a bounded queue while the object directories are streamed,
+ * and each check only looks at its own object, so memory doesn't grow with
+ * the number of objects. Problems are printed as soon as they're found.
+ *
+ * @author Crvena
+ */
+class Fsck {
+    private static final Pattern SHA1 = Pattern.compile("[0-9a-f]{40}");
+    private static final String TEMP_PREFIX = "tmp_";
+    private static final int BUFFER_SIZE = 64 << 10;
+
+    private final File objectsDir;
+    private final ChunkStore chunks;
+    /* Whether blobs may be missing, as in a partial clone */
+    private final boolean partial;
+    private final int threads = Runtime.getRuntime().availableProcessors();
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong problems = new AtomicLong();
+
+    /**
+     * @param objectsDir - The object store
+     * @param partial    - Whether blobs may be missing, to be fetched on demand
+     */
+    Fsck(File objectsDir, boolean partial) {
+        this.objectsDir = objectsDir;
+        this.chunks = ChunkStore.forObjects(objectsDir);
+        this.partial = partial;
+    }
+
+    /**
+     * Check that every branch points to a commit, and HEAD to a branch
+     * Runtime: O(N) with N branches
+     *
+     * @param refs          - The branches
+     * @param currentBranch - The branch in HEAD, null if HEAD is missing
+     */
+    void checkRefs(Refs refs, String currentBranch) {
+        List<String> branches = refs.list();
+        for (String branch : branches) {
+            String sha1 = refs.read(branch);
+            if (!isSha1(sha1)) {
+                report("bad ref %s: '%s' is not a sha1", branch, sha1);
+            } else if (readCommit(sha1) == null) {
+                report("bad ref %s: %s is not a commit", branch, sha1);
+            }
+        }
+        if (currentBranch == null) {
+            report("bad HEAD: missing");
+        } else if (!branches.contains(currentBranch)) {
+            report("bad HEAD: no branch %s", currentBranch);
+        }
+    }
+
+    /**
+     * Check that the stage, with its journal replayed as Repository.getStagedCommit()
+     * does, is on top of HEAD and its files, committed or added, exist
+     * Runtime: O(N + J) with N files in the stage, journal of size J
+     *
+     * @param stageFile   - The stage
+     * @param journalFile - The stage journal, see StageJournal
+     * @param head        - Sha1 of the head commit, null if unknown
+     */
+    void checkStage(File stageFile, File journalFile, String head) {
+        if (!stageFile.exists() && !journalFile.exists()) {
+            return;
+        }
+        Commit staged;
+        if (stageFile.exists()) {
+            try {
+                staged = Utils.readObject(stageFile, Commit.class);
+            } catch (IllegalArgumentException e) {
+                report("bad stage: %s", e.getMessage());
+                return;
+            }
+        } else {
+            // Only journaled changes, on top of HEAD
+            Commit headCommit = head != null ? readCommit(head) : null;
+            if (headCommit == null) {
+                report("bad stage journal: no HEAD commit to replay it on");
+                return;
+            }
+            staged = Commit.createStagedCommit(headCommit);
+        }
+        try {
+            new StageJournal(journalFile).replay(staged);
+        } catch (IllegalArgumentException e) {
+            report("bad stage journal: %s", e.getMessage());
+            return;
+        }
+        if (head != null && !head.equals(staged.getParentSha1())) {
+            report("bad stage: based on %s, not on HEAD %s", staged.getParentSha1(), head);
+        }
+        checkFiles("the stage", staged.getAllBlobs());
+        Map<String, String> added = new TreeMap<>();
+        for (Blob blob : staged.getAddedBlobs()) {
+            added.put(blob.getFilename(), blob.getSha1());
+        }
+        checkFiles("the stage", added);
+    }
+
+    /**
+     * Check every object, on a pool of one thread per processor
+     * Runtime: O(N / T) with N bytes of objects, T threads
+     */
+    void checkObjects() throws IOException, InterruptedException {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(threads * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+        try (DirectoryStream<Path> shards = Files.newDirectoryStream(objectsDir.toPath(),
+                Files::isDirectory)) {
+            for (Path shard : shards) {
+                try (DirectoryStream<Path> objects = Files.newDirectoryStream(shard)) {
+                    for (Path object : objects) {
+                        String name = object.getFileName().toString();
+                        if (!name.startsWith(TEMP_PREFIX)) {
+                            pool.execute(() -> checkObject(object.toFile()));
+                        }
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    long getChecked() {
+        return checked.get();
+    }
+
+    long getProblems() {
+        return problems.get();
+    }
+
+    private void checkObject(File file) {
+        String id = file.getParentFile().getName() + file.getName();
+        checked.incrementAndGet();
+        if (!isSha1(id)) {
+            report("bad object name %s", id);
+            return;
+        }
+        try {
+            if (checkRawBlob(id, file)) {
+                return;
+            }
+            Serializable object = Utils.readObject(file, Serializable.class);
+            if (object instanceof Commit) {
+                checkCommit(id, (Commit) object);
+            } else if (object instanceof Blob) {
+                Blob blob = (Blob) object;
+                String actual = Utils.sha1(Utils.serialize((long) blob.getData().length),
+                        blob.getData(), blob.getFilename());
+                checkHash(id, actual);
+            } else {
+                report("unknown object %s: %s", id, object.getClass().getName());
+            }
+        } catch (IOException | RuntimeException e) {
+            report("corrupt object %s: %s", id, e.getMessage());
+        }
+    }
+
+    /**
+     * Hash a raw blob in pieces, however big it is, reading the chunks of a
+     * chunked blob in order
+     *
+     * @return false if the object isn't a raw blob
+     */
+    private boolean checkRawBlob(String id, File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Blob.Header header = Blob.readHeader(channel);
+            if (header == null) {
+                return false;
+            }
+            MessageDigest md = newDigest();
+            md.update(Utils.serialize(header.contentLength));
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            if (header.chunks == null) {
+                hash(md, buffer, channel, header.contentOffset);
+            } else {
+                for (Blob.Chunk chunk : header.chunks) {
+                    if (!chunks.has(chunk.sha1)) {
+                        report("missing chunk %s of blob %s", chunk.sha1, id);
+                        return true;
+                    }
+                    try (FileChannel chunkChannel = chunks.open(chunk)) {
+                        hash(md, buffer, chunkChannel, 0);
+                    }
+                }
+            }
+            md.update(header.filename.getBytes(StandardCharsets.UTF_8));
+            checkHash(id, toHex(md.digest()));
+            return true;
+        }
+    }
+
+    private static void hash(MessageDigest md, ByteBuffer buffer, FileChannel channel, long position)
+            throws IOException {
+        while (channel.read(buffer, position) > 0) {
+            buffer.flip();
+            int n = buffer.remaining();
+            position += n;
+            // Charged like Utils.sha1, which can't stream from a channel
+            try (Trace.Span span = Trace.phase(Trace.Phase.HASH)) {
+                md.update(buffer);
+            }
+            Trace.count(Trace.Counter.BYTES_HASHED, n);
+            buffer.clear();
+        }
+    }
+
+    private void checkCommit(String id, Commit commit) {
+        if (!id.equals(commit.getSha1())) {
+            report("misplaced commit %s: its id is %s", id, commit.getSha1());
+        }
+        for (String parent : new String[]{commit.getParentSha1(), commit.getMergedParentSha1()}) {
+            if (parent != null && !objectExists(parent)) {
+                report("missing parent %s of commit %s", parent, id);
+            }
+        }
+        checkFiles("commit " + id, commit.getAllBlobs());
+    }
+
+    private void checkFiles(String where, Map<String, String> blobs) {
+        if (partial) {
+            return;
+        }
+        for (Map.Entry<String, String> entry : blobs.entrySet()) {
+            if (!objectExists(entry.getValue())) {
+                report("missing blob %s of %s in %s", entry.getValue(), entry.getKey(), where);
+            }
+        }
+    }
+
+    private void checkHash(String id, String actual) {
+        if (!id.equals(actual)) {
+            report("hash mismatch in %s: its content hashes to %s", id, actual);
+        }
+    }
+
+    private Commit readCommit(String sha1) {
+        if (!objectExists(sha1)) {
+            return null;
+        }
+        try {
+            return Utils.readObject(objectFile(sha1), Commit.class);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private boolean objectExists(String sha1) {
+        return isSha1(sha1) && objectFile(sha1).isFile();
+    }
+
+    private File objectFile(String sha1) {
+        return Utils.join(objectsDir, sha1.substring(0, 2), sha1.substring(2));
+    }
+
+    private static boolean isSha1(String s) {
+        return s != null && SHA1.matcher(s).matches();
+    }
+
+    private void report(String format, Object... args) {
+        problems.incrementAndGet();
+        System.out.println("error: " + String.format(format, args));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        Formatter result = new Formatter();
+        for (byte b : bytes) {
+            result.format("%02x", b);
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,171 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Mark and sweep of the object store: deletes the objects no branch
+ * (nor the stage) can reach.
+ * <p>
+ * Marking runs in two passes:
+ * <ol>
+ * <li>Walk the history of every root through the commit graph index,
+ * so no commit is deserialized just to find its parents, and each
+ * commit is visited once however many branches share it.</li>
+ * <li>Read every live commit exactly once, in parallel, and mark its blobs.</li>
+ * </ol>
+ * The sweep then goes over the object directories in parallel.
+ * Unreachable objects and leftover temp files younger than the grace period
+ * are kept, since another process may have just written them and not yet
+ * pointed a ref to them. Last, the chunks no kept blob lists are swept
+ * the same way.
+ *
+ * @author Crvena
+ */
+class GarbageCollector {
+    /**
+     * Keep unreachable objects modified in the last two weeks, like git gc
+     */
+    static final long DEFAULT_GRACE_MILLIS = 14L * 24 * 60 * 60 * 1000;
+
+    private static final String TEMP_PREFIX = "tmp_";
+
+    private final File objectsDir;
+    private final ChunkStore chunks;
+    private final long cutoff;
+    private final Set<String> liveCommits = new HashSet<>();
+    private final Set<String> liveBlobs = ConcurrentHashMap.newKeySet();
+    private final Set<String> kept = ConcurrentHashMap.newKeySet();
+    private final Set<String> liveChunks = ConcurrentHashMap.newKeySet();
+    private volatile boolean chunksUnknown;
+    private final AtomicLong removed = new AtomicLong();
+    private final AtomicLong freed = new AtomicLong();
+
+    /**
+     * @param objectsDir  - The object store
+     * @param graceMillis - How old an unreachable object must be to be deleted
+     */
+    GarbageCollector(File objectsDir, long graceMillis) {
+        this.objectsDir = objectsDir;
+        this.chunks = ChunkStore.forObjects(objectsDir);
+        this.cutoff = System.currentTimeMillis() - graceMillis;
+    }
+
+    /**
+     * Mark all commits reachable from ROOTS, and their blobs
+     * Runtime: O(C + B) with C reachable commits of B blobs in total
+     *
+     * @param roots - Sha1 of commits to keep with their whole history
+     */
+    void markCommits(Collection<String> roots) {
+        Deque<String> pending = new ArrayDeque<>();
+        for (String root : roots) {
+            if (liveCommits.add(root)) {
+                pending.push(root);
+            }
+        }
+        while (!pending.isEmpty()) {
+            CommitGraph.Entry entry = Repository.COMMIT_GRAPH.get(pending.pop());
+            for (String parent : Arrays.asList(entry.parentSha1, entry.mergedParentSha1)) {
+                if (parent != null && liveCommits.add(parent)) {
+                    pending.push(parent);
+                }
+            }
+        }
+        liveCommits.parallelStream().forEach(sha1 ->
+                liveBlobs.addAll(Repository.readCommitObject(sha1).getAllBlobs().values()));
+    }
+
+    /**
+     * Mark blobs not referred to by any commit yet, e.g. staged ones
+     */
+    void markBlobs(Collection<String> blobs) {
+        liveBlobs.addAll(blobs);
+    }
+
+    /**
+     * Delete every unmarked object older than the grace period,
+     * then drop the deleted commits from the commit graph index,
+     * then delete the chunks of no kept blob older than the grace period
+     * Runtime: O(N + C) with N objects, C chunks
+     */
+    void sweep() throws IOException {
+        File[] shards = objectsDir.listFiles(File::isDirectory);
+        if (shards == null) {
+            return;
+        }
+        boolean chunked = chunks.getDir().isDirectory();
+        Arrays.stream(shards).parallel().forEach(shard -> sweepShard(shard,
+                sha1 -> liveCommits.contains(sha1) || liveBlobs.contains(sha1), chunked));
+        Repository.COMMIT_GRAPH.retain(kept);
+        File[] chunkShards = chunks.getDir().listFiles(File::isDirectory);
+        if (chunkShards != null && !chunksUnknown) {
+            Arrays.stream(chunkShards).parallel().forEach(shard ->
+                    sweepShard(shard, liveChunks::contains, false));
+        }
+    }
+
+    /**
+     * @param live       - Whether a sha1 is marked
+     * @param markChunks - Whether to mark the chunks of the blobs kept
+     */
+    private void sweepShard(File shard, Predicate<String> live, boolean markChunks) {
+        List<String> files = Utils.plainFilenamesIn(shard);
+        if (files == null) {
+            return;
+        }
+        for (String name : files) {
+            File file = new File(shard, name);
+            String sha1 = shard.getName() + name;
+            boolean marked = !name.startsWith(TEMP_PREFIX) && live.test(sha1);
+            long length = file.length();
+            if (marked || file.lastModified() > cutoff || !file.delete()) {
+                kept.add(sha1);
+                if (markChunks && !name.startsWith(TEMP_PREFIX) && !liveCommits.contains(sha1)) {
+                    markChunks(file);
+                }
+                continue;
+            }
+            removed.incrementAndGet();
+            freed.addAndGet(length);
+        }
+        String[] left = shard.list();
+        if (left != null && left.length == 0) {
+            shard.delete();
+        }
+    }
+
+    private void markChunks(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Blob.Header header = Blob.readHeader(channel);
+            if (header != null && header.chunks != null) {
+                for (Blob.Chunk chunk : header.chunks) {
+                    liveChunks.add(chunk.sha1);
+                }
+            }
+        } catch (IOException e) {
+            // Its chunks are unknown, keep them all
+            chunksUnknown = true;
+        }
+    }
+
+    long getRemoved() {
+        return removed.get();
+    }
+
+    long getFreed() {
+        return freed.get();
+    }
+}
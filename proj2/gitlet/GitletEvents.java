@@ -0,0 +1,123 @@
+package gitlet;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events of gitlet internals.
+ * <p>
+ * Usage, at each call site:
+ * <pre>
+ * ObjectRead event = new ObjectRead();
+ * event.begin();
+ * ... the work ...
+ * event.end();
+ * if (event.shouldCommit()) {
+ *     event.objectId = ...;
+ *     event.commit();
+ * }
+ * </pre>
+ * Fields are only filled in when the event will be recorded. Without a
+ * recording the JIT removes the event entirely. Each type has a default
+ * threshold so that frequent, fast operations stay out of recordings.
+ * Override it in a .jfc file or with
+ * -XX:StartFlightRecording:settings=...,gitlet.ObjectRead#threshold=0ms
+ *
+ * @author Crvena
+ */
+final class GitletEvents {
+    private static final String CATEGORY = "Gitlet";
+
+    private GitletEvents() {
+    }
+
+    @Name("gitlet.ObjectRead")
+    @Label("Object Read")
+    @Description("A commit or blob read and decoded from the object store")
+    @Category({CATEGORY, "Objects"})
+    @Threshold("100 us")
+    static final class ObjectRead extends Event {
+        @Label("Object Id")
+        String objectId;
+        @Label("Type")
+        String type;
+        @Label("Size")
+        @DataAmount
+        long size;
+    }
+
+    @Name("gitlet.ObjectWrite")
+    @Label("Object Write")
+    @Description("An object written to the object store")
+    @Category({CATEGORY, "Objects"})
+    @Threshold("100 us")
+    static final class ObjectWrite extends Event {
+        @Label("Object Id")
+        String objectId;
+        @Label("Size")
+        @DataAmount
+        long size;
+        @Label("Written")
+        @Description("False if the object was already there")
+        boolean written;
+    }
+
+    @Name("gitlet.Hash")
+    @Label("SHA-1")
+    @Category(CATEGORY)
+    @Threshold("100 us")
+    @StackTrace(false)
+    static final class Hash extends Event {
+        @Label("Size")
+        @DataAmount
+        long size;
+    }
+
+    @Name("gitlet.Checkout")
+    @Label("Blob Checkout")
+    @Description("A blob restored to the working tree")
+    @Category({CATEGORY, "Working Tree"})
+    @Threshold("1 ms")
+    static final class Checkout extends Event {
+        @Label("Object Id")
+        String objectId;
+        @Label("File")
+        String filename;
+        @Label("Size")
+        @DataAmount
+        long size;
+    }
+
+    @Name("gitlet.MergeBase")
+    @Label("Merge Base")
+    @Description("The common ancestor of two branches")
+    @Category(CATEGORY)
+    @Threshold("1 ms")
+    static final class MergeBase extends Event {
+        @Label("Ours")
+        String ours;
+        @Label("Theirs")
+        String theirs;
+        @Label("Base")
+        String base;
+    }
+
+    @Name("gitlet.WorktreeScan")
+    @Label("Working Tree Scan")
+    @Description("Comparing the working tree with the stage")
+    @Category({CATEGORY, "Working Tree"})
+    @Threshold("1 ms")
+    static final class WorktreeScan extends Event {
+        @Label("Files")
+        int files;
+        @Label("Changed")
+        @Description("Changed files found, -1 if the scan stopped at the first one")
+        int changed;
+    }
+}
@@ -0,0 +1,166 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The untracked files gitlet doesn't look at, from .gitletignore in the
+ * working directory.
+ * <p>
+ * One glob per line: '*' matches any characters, '?' one character and
+ * [...] one of a class ([!...] none of it), '\' escapes the next character.
+ * A pattern starting with '!' re-includes what it matches, and the last
+ * matching pattern wins. Blank lines and lines starting with '#' are
+ * ignored, a leading or trailing '/' is dropped.
+ * <p>
+ * The patterns are compiled once. Plain names go to a hash table, and the
+ * globs into a single regex, alternatives in reverse order so the first
+ * one to match is the last matching pattern. Matching a name is then one
+ * lookup and one regex match, on the name alone, before the file is
+ * stat'd or read.
+ *
+ * @author Crvena
+ */
+class IgnoreMatcher {
+    static final String IGNORE_FILENAME = ".gitletignore";
+
+    /**
+     * Ignores nothing
+     */
+    static final IgnoreMatcher NONE = new IgnoreMatcher(new ArrayList<>());
+
+    /* Plain name -> index of its last pattern */
+    private final Map<String, Integer> literals = new HashMap<>();
+    /* Globs, last first, each in a group of its own */
+    private final Pattern globs;
+    /* Index of the pattern of each group of GLOBS, from 1 */
+    private final List<Integer> groupPatterns = new ArrayList<>();
+    private final List<Boolean> negated = new ArrayList<>();
+
+    private IgnoreMatcher(List<String> patterns) {
+        List<String> alternatives = new ArrayList<>();
+        groupPatterns.add(-1);
+        for (int i = patterns.size() - 1; i >= 0; i--) {
+            String pattern = patterns.get(i);
+            boolean negate = pattern.startsWith("!");
+            if (negate) {
+                pattern = pattern.substring(1);
+            }
+            negated.add(0, negate);
+            String regex = toRegex(pattern);
+            if (regex == null) {
+                literals.putIfAbsent(unescape(pattern), i);
+            } else {
+                alternatives.add("(" + regex + ")");
+                groupPatterns.add(i);
+            }
+        }
+        this.globs = alternatives.isEmpty() ? null : Pattern.compile(String.join("|", alternatives));
+    }
+
+    /**
+     * @param workDir - The working directory
+     * @return The patterns in its .gitletignore, NONE if there's no such file
+     */
+    static IgnoreMatcher load(File workDir) {
+        File file = Utils.join(workDir, IGNORE_FILENAME);
+        if (!file.isFile()) {
+            return NONE;
+        }
+        List<String> patterns = new ArrayList<>();
+        for (String line : Utils.readContentsAsString(file).split("\n")) {
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            boolean negate = line.startsWith("!");
+            String pattern = negate ? line.substring(1) : line;
+            if (pattern.startsWith("/")) {
+                pattern = pattern.substring(1);
+            }
+            if (pattern.endsWith("/") && !pattern.endsWith("\\/")) {
+                pattern = pattern.substring(0, pattern.length() - 1);
+            }
+            if (!pattern.isEmpty()) {
+                patterns.add(negate ? "!" + pattern : pattern);
+            }
+        }
+        return of(patterns);
+    }
+
+    static IgnoreMatcher of(List<String> patterns) {
+        return new IgnoreMatcher(patterns);
+    }
+
+    /**
+     * Runtime: O(L + G) with name of length L, G globs
+     *
+     * @return Whether FILENAME is ignored, if it's untracked
+     */
+    boolean ignores(String filename) {
+        int last = literals.getOrDefault(filename, -1);
+        if (globs != null) {
+            Matcher matcher = globs.matcher(filename);
+            if (matcher.matches()) {
+                for (int group = 1; group <= matcher.groupCount(); group++) {
+                    if (matcher.start(group) >= 0) {
+                        last = Math.max(last, groupPatterns.get(group));
+                        break;
+                    }
+                }
+            }
+        }
+        return last >= 0 && !negated.get(last);
+    }
+
+    /**
+     * @return The regex of a glob, null if it has no wildcard
+     */
+    private static String toRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        boolean wildcard = false;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '*' -> {
+                    regex.append(".*");
+                    wildcard = true;
+                }
+                case '?' -> {
+                    regex.append('.');
+                    wildcard = true;
+                }
+                case '[' -> {
+                    int end = glob.indexOf(']', i + 2);
+                    if (end < 0) {
+                        regex.append("\\[");
+                        break;
+                    }
+                    String set = glob.substring(i + 1, end);
+                    if (set.startsWith("!")) {
+                        set = "^" + set.substring(1);
+                    }
+                    regex.append('[').append(set.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+                    wildcard = true;
+                    i = end;
+                }
+                case '\\' -> {
+                    if (i + 1 < glob.length()) {
+                        regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+                    }
+                }
+                default -> regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return wildcard ? regex.toString() : null;
+    }
+
+    private static String unescape(String literal) {
+        return literal.replaceAll("\\\\(.)", "$1");
+    }
+}
@@ -0,0 +1,127 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Exclusive, atomic replacement of one small file, the way git updates refs.
+ * <p>
+ * acquire() creates TARGET.lock, failing if it exists: whoever created it owns
+ * the update. The new content goes to the lock file and is synced to disk,
+ * then commit() syncs the objects written so far, so the new content never
+ * names an object lost in a crash, and renames the lock file over TARGET in
+ * one atomic step. The syncs follow the repository's Durability.
+ * A crash at any point leaves TARGET either old or new, never empty or torn,
+ * and a concurrent writer gets a clean "locked" error instead of a lost update.
+ * <p>
+ * Use with try-with-resources: close() drops the lock if commit() wasn't reached.
+ *
+ * @author Crvena
+ */
+class LockFile implements AutoCloseable {
+    /**
+     * How long to wait for a lock held by someone else, in ms
+     */
+    private static final long TIMEOUT = 1000;
+    private static final long BACKOFF = 5;
+
+    private final File target;
+    private final File lock;
+    private boolean done;
+
+    private LockFile(File target, File lock) {
+        this.target = target;
+        this.lock = lock;
+    }
+
+    /**
+     * Lock TARGET, retrying for a short while if another process holds the lock
+     *
+     * @param target - The file to update
+     * @return The lock
+     * @throws GitletException - When the lock is still taken after TIMEOUT
+     */
+    static LockFile acquire(File target) throws GitletException {
+        File lock = new File(target.getPath() + ".lock");
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        long backoff = BACKOFF;
+        while (true) {
+            try {
+                Files.createFile(lock.toPath());
+                return new LockFile(target, lock);
+            } catch (FileAlreadyExistsException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new GitletException(String.format(
+                            "Unable to lock %s: another gitlet process seems to be running. "
+                                    + "If not, remove %s and try again.",
+                            target.getName(), lock.getPath()));
+                }
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new GitletException("Interrupted while waiting for " + lock.getPath());
+                }
+                backoff = Math.min(backoff * 2, 100);
+            } catch (IOException e) {
+                throw new GitletException("Unable to create " + lock.getPath() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Write the new content of the target to the lock file, and sync it
+     * unless the durability is NONE
+     */
+    void write(String content) throws IOException {
+        write(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    void write(byte[] content) throws IOException {
+        try (FileChannel channel = FileChannel.open(lock.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (Durability.get().syncsObjects()) {
+                channel.force(true);
+            }
+        }
+    }
+
+    /**
+     * Atomically replace the target with what was written,
+     * once the objects it may name are synced
+     */
+    void commit() throws IOException {
+        Durability durability = Durability.get();
+        if (durability.syncsObjects()) {
+            ObjectWriter.syncWritten();
+        }
+        Files.move(lock.toPath(), target.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        done = true;
+        if (durability.syncsAll()) {
+            LockManager.forceDirectory(target.toPath().getParent());
+        }
+    }
+
+    /**
+     * Release the lock without touching the target
+     */
+    @Override
+    public void close() {
+        if (!done) {
+            lock.delete();
+            done = true;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package gitlet;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Concurrency control between gitlet processes sharing one repository.
+ * <p>
+ * There are three paths:
+ * <ul>
+ * <li>Writers of the stage hold an OS lock (FileChannel.lock) on .gitlet/stage-lock
+ *     for their whole read-modify-write, so concurrent adds can't lose updates.
+ *     The OS drops the lock when the process dies, so it never goes stale.</li>
+ * <li>Objects are content-addressed, so writing one twice is harmless: they are
+ *     written to a temp file and linked into place without any lock, and a
+ *     name that already exists counts as success.</li>
+ * <li>Readers never lock. Every file is replaced by an atomic rename,
+ *     so a reader sees either the old or the new content.</li>
+ * </ul>
+ * Refs have their own per-file lock, see LockFile.
+ *
+ * @author Crvena
+ */
+class LockManager {
+    /* Object files this process wrote and hasn't synced yet */
+    private static final Set<Path> UNSYNCED = ConcurrentHashMap.newKeySet();
+
+    private final File stageLockFile;
+    private FileChannel channel;
+    private FileLock stageLock;
+    /* How many times this process holds the stage lock */
+    private int holds;
+
+    /**
+     * A held lock, released by close()
+     */
+    interface Handle extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * @param gitletDir - The .gitlet directory
+     */
+    LockManager(File gitletDir) {
+        this.stageLockFile = Utils.join(gitletDir, "stage-lock");
+    }
+
+    /**
+     * Lock the stage against other processes, waiting while another one holds it.
+     * Reentrant within this process.
+     *
+     * @return The handle to release the lock with
+     */
+    Handle lockStage() {
+        if (holds == 0) {
+            try {
+                channel = FileChannel.open(stageLockFile.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                stageLock = channel.lock();
+            } catch (IOException e) {
+                closeChannel();
+                throw new GitletException("Unable to lock the stage: " + e.getMessage());
+            }
+        }
+        holds++;
+        return this::unlockStage;
+    }
+
+    private void unlockStage() {
+        if (holds == 0) {
+            return;
+        }
+        holds--;
+        if (holds == 0) {
+            try {
+                stageLock.release();
+            } catch (IOException e) {
+                // Released anyway when the channel closes
+            }
+            closeChannel();
+        }
+    }
+
+    private void closeChannel() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+        channel = null;
+        stageLock = null;
+    }
+
+    /**
+     * Write an object file without locking.
+     * Runtime: O(N) with content of size N
+     *
+     * @param target  - The object file, named by the hash of CONTENT
+     * @param content - The encoded object, in one or more parts
+     * @return false if the object was already there
+     * @throws IOException - When IO system fails
+     */
+    static boolean writeObject(File target, byte[]... content) throws IOException {
+        GitletEvents.ObjectWrite event = new GitletEvents.ObjectWrite();
+        event.begin();
+        try (Trace.Span span = Trace.phase(Trace.Phase.OBJECT_WRITE)) {
+            boolean written = writeObjectFile(target, content);
+            event.end();
+            if (event.shouldCommit()) {
+                event.objectId = target.getParentFile().getName() + target.getName();
+                for (byte[] part : content) {
+                    event.size += part.length;
+                }
+                event.written = written;
+                event.commit();
+            }
+            return written;
+        }
+    }
+
+    private static boolean writeObjectFile(File target, byte[]... content) throws IOException {
+        if (target.exists()) {
+            return false;
+        }
+        Path dir = target.toPath().getParent();
+        Files.createDirectories(dir);
+        long size = 0;
+        for (byte[] part : content) {
+            size += part.length;
+        }
+        return publish(target, writeTemp(dir, content), size);
+    }
+
+    /**
+     * Write an object file streamed from SOURCE, the same way as writeObject().
+     * All SIZE bytes are consumed from SOURCE, even if the object was already there.
+     * Runtime: O(N) with content of size N
+     *
+     * @param target - The object file, named by the hash of the content
+     * @param source - Where to read the encoded object from
+     * @param size   - The size of the encoded object
+     * @return false if the object was already there
+     * @throws IOException - When IO system fails, or SOURCE ends early
+     */
+    static boolean writeObject(File target, ReadableByteChannel source, long size)
+            throws IOException {
+        try (Trace.Span span = Trace.phase(Trace.Phase.OBJECT_WRITE)) {
+            Path dir = target.toPath().getParent();
+            Files.createDirectories(dir);
+            Path temp = Files.createTempFile(dir, "tmp_", null);
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                long done = 0;
+                while (done < size) {
+                    long n = out.transferFrom(source, done, size - done);
+                    if (n <= 0) {
+                        throw new EOFException("Object " + target.getName() + " ended early");
+                    }
+                    done += n;
+                }
+            } catch (IOException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            return publish(target, temp, size);
+        }
+    }
+
+    /**
+     * Move a written temp file to its object file
+     */
+    private static boolean publish(File target, Path temp, long size) throws IOException {
+        try {
+            // Linking, unlike renaming, never replaces an existing object,
+            // and the same name means the same content, so losing the race is fine
+            Files.createLink(target.toPath(), temp);
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } catch (UnsupportedOperationException | IOException e) {
+            // No hard links here: an atomic rename is still safe for equal content
+            Files.move(temp, target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        UNSYNCED.add(target.toPath());
+        Trace.count(Trace.Counter.OBJECTS_WRITTEN, 1);
+        Trace.count(Trace.Counter.BYTES_WRITTEN, size);
+        return true;
+    }
+
+    /**
+     * @return The object files written since the last call, to be synced by the caller
+     */
+    static List<Path> takeUnsynced() {
+        List<Path> files = new ArrayList<>(UNSYNCED);
+        UNSYNCED.removeAll(files);
+        return files;
+    }
+
+    /**
+     * Flush a file's content to the device
+     *
+     * @throws IOException - When IO system fails
+     */
+    static void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            channel.force(false);
+        }
+        Trace.count(Trace.Counter.FILES_SYNCED, 1);
+    }
+
+    /**
+     * Flush a directory's entries to the device, so the files created or
+     * renamed in it survive a crash. Does nothing where directories can't
+     * be opened, e.g. on Windows, which has no such need.
+     *
+     * @throws IOException - When IO system fails
+     */
+    static void forceDirectory(Path dir) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(dir, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+        try (channel) {
+            channel.force(true);
+        }
+        Trace.count(Trace.Counter.FILES_SYNCED, 1);
+    }
+
+    /**
+     * Replace a file atomically, for files guarded by a lock of their own
+     * (like the stage) which lock-free readers may be reading.
+     * Synced, with its directory, when the durability is FULL.
+     * Runtime: O(N) with content of size N
+     *
+     * @param target  - The file to replace
+     * @param content - Its new content
+     * @throws IOException - When IO system fails
+     */
+    static void replace(File target, byte[] content) throws IOException {
+        Path dir = target.toPath().getParent();
+        Path temp = writeTemp(dir, content);
+        boolean sync = Durability.get().syncsAll();
+        try {
+            if (sync) {
+                force(temp);
+            }
+            Files.move(temp, target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        if (sync) {
+            forceDirectory(dir);
+        }
+    }
+
+    private static Path writeTemp(Path dir, byte[]... content) throws IOException {
+        Path temp = Files.createTempFile(dir, "tmp_", null);
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            for (byte[] part : content) {
+                ByteBuffer buffer = ByteBuffer.wrap(part);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return temp;
+    }
+}
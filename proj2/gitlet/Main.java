@@ -1,11 +1,21 @@
 package gitlet;
 
+import java.util.Set;
+
 /**
  * Driver class for Gitlet, a subset of the Git version-control system.
  *
  * @author TODO
  */
 public class Main {
+    /**
+     * Commands that read, change and write back the stage.
+     * Each runs under the stage lock, so concurrent ones can't lose updates.
+     * gc takes it too, so it never sweeps objects a running command just wrote.
+     */
+    private static final Set<String> STAGE_WRITERS =
+            Set.of("add", "rm", "commit", "checkout", "switch", "reset", "merge", "gc", "prune",
+                    "fetch", "pull", "sparse-checkout");
 
     /**
      * Usage: java gitlet.Main ARGS, where ARGS contains
@@ -14,14 +24,27 @@ public class Main {
     public static void main(String[] args) {
         // TODO: what if args is empty?
         ErrorHandler.handleNoCommand(args);
+        Trace.begin(args);
         commandSelector(args);
     }
 
     private static void commandSelector(String[] args) {
         String firstArg = args[0];
-        selectInit(firstArg); // FIXME: This is not clean
+        selectInit(args); // FIXME: This is not clean
         ErrorHandler.handleGitletNotExist();
-        switch (firstArg) {
+        if (STAGE_WRITERS.contains(firstArg)) {
+            try (LockManager.Handle lock = Repository.LOCKS.lockStage()) {
+                selectCommand(args);
+            } catch (GitletException e) {
+                ErrorHandler.handleGitletException(e);
+            }
+        } else {
+            selectCommand(args);
+        }
+    }
+
+    private static void selectCommand(String[] args) {
+        switch (args[0]) {
             case "test" -> {
                 Command.testHead();
                 Command.testStaged();
@@ -37,19 +60,36 @@ public class Main {
             case "global-log" -> Command.globalLog(args);
             case "find"       -> Command.find(args);
             case "rm-branch"  -> Command.rmBranch(args);
+            case "pack-refs"  -> Command.packRefs(args);
+            case "gc", "prune" -> Command.gc(args);
+            case "fsck"       -> Command.fsck(args);
+            case "archive"    -> Command.archive(args);
+            case "add-remote" -> Command.addRemote(args);
+            case "rm-remote"  -> Command.rmRemote(args);
+            case "fetch"      -> Command.fetch(args);
+            case "push"       -> Command.push(args);
+            case "pull"       -> Command.pull(args);
+            case "sparse-checkout" -> Command.sparseCheckout(args);
+            case "durability" -> Command.durability(args);
             case "reset"      -> Command.reset(args);
             case "merge"      -> Command.merge(args);
+            case "diff"       -> Command.diff(args);
+            case "blame"      -> Command.blame(args);
             default           -> ErrorHandler.handleCommandNotFound();
         }
     }
 
-    private static void selectInit(String firstArg) {
-        if (!firstArg.equals("init")) {
+    private static void selectInit(String[] args) {
+        if (!args[0].equals("init") && !args[0].equals("clone")) {
             return;
         }
         ErrorHandler.handleGitletExist();
         // TODO: Repository.initGitlet();
-        Command.init();
+        if (args[0].equals("init")) {
+            Command.init();
+        } else {
+            Command.cloneRemote(args);
+        }
         System.exit(0);
     }
 }
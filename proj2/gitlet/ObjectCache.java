@@ -0,0 +1,114 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A size-bounded LRU cache of decoded objects, keyed by sha1.
+ * <p>
+ * Objects are immutable once written and named by their content,
+ * so a cached object never goes stale and needs no invalidation.
+ * Each entry weighs its decoded size in bytes, and the least recently
+ * used entries are evicted once the total weight goes over the capacity.
+ * Objects heavier than the whole capacity are not cached at all.
+ * <p>
+ * Thread safe, so one cache can serve every command of a long-running process.
+ *
+ * @author Crvena
+ */
+class ObjectCache {
+    /**
+     * Default capacity, in bytes
+     */
+    static final long DEFAULT_CAPACITY = 64L << 20;
+
+    private static final class Entry {
+        final Object object;
+        final long weight;
+
+        Entry(Object object, long weight) {
+            this.object = object;
+            this.weight = weight;
+        }
+    }
+
+    private final long capacity;
+    /* Access ordered: the eldest entry is the least recently used */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param capacity - The most bytes to keep
+     */
+    ObjectCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Look up an object
+     * Runtime: O(1)
+     *
+     * @param sha1 - The id of the object
+     * @param type - The type the object must have
+     * @return The object, null if it isn't cached or has another type
+     */
+    synchronized <T> T get(String sha1, Class<T> type) {
+        Entry entry = entries.get(sha1);
+        if (entry == null || !type.isInstance(entry.object)) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return type.cast(entry.object);
+    }
+
+    /**
+     * Cache an object, evicting the least recently used ones to make room
+     * Runtime: O(1) amortized
+     *
+     * @param sha1   - The id of the object
+     * @param object - The decoded object
+     * @param size   - Its decoded size in bytes
+     */
+    synchronized void put(String sha1, Object object, long size) {
+        if (size > capacity) {
+            return;
+        }
+        Entry old = entries.put(sha1, new Entry(object, size));
+        if (old != null) {
+            weight -= old.weight;
+        }
+        weight += size;
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (weight > capacity) {
+            weight -= eldest.next().weight;
+            eldest.remove();
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return The total size of the cached objects, in bytes
+     */
+    synchronized long getWeight() {
+        return weight;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+}
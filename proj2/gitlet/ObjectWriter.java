@@ -0,0 +1,166 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes a batch of objects on a bounded pool, then makes them all durable
+ * with one group sync, unless the repository's Durability is NONE.
+ * <p>
+ * Writing an object is mostly waiting on syscalls (mkdir, create, write,
+ * link), so writes run concurrently, at most THREADS at a time. finish()
+ * waits for all of them, then syncs every object written so far, the files
+ * concurrently (the file system folds concurrent syncs into few journal
+ * commits) and each directory holding a new name once. Whatever is written
+ * after finish() returns, e.g. a commit and then its ref, can rely on
+ * every object of the batch being on the device.
+ * <p>
+ * Writes of a single object run on the caller's thread, without a pool.
+ *
+ * @author Crvena
+ */
+class ObjectWriter implements AutoCloseable {
+    /**
+     * The most writes in flight
+     */
+    static final int THREADS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+    /**
+     * One object write
+     */
+    interface Write {
+        void run() throws IOException;
+    }
+
+    private final ExecutorService pool;
+    private final List<Future<?>> pending = new ArrayList<>();
+
+    /**
+     * @param writes - How many writes the batch will have, to size the pool
+     */
+    ObjectWriter(int writes) {
+        this.pool = writes > 1 ? Executors.newFixedThreadPool(Math.min(THREADS, writes)) : null;
+    }
+
+    /**
+     * Start a write, or run it at once without a pool
+     *
+     * @throws IOException - When IO system fails in a write run at once
+     */
+    void submit(Write write) throws IOException {
+        if (pool == null) {
+            write.run();
+            return;
+        }
+        pending.add(pool.submit(() -> {
+            write.run();
+            return null;
+        }));
+    }
+
+    /**
+     * Wait for every write, then sync them
+     * Runtime: O(N) with N objects
+     *
+     * @throws IOException - When a write or sync fails, the first failure
+     */
+    void finish() throws IOException {
+        try {
+            for (Future<?> write : pending) {
+                await(write);
+            }
+        } finally {
+            pending.clear();
+        }
+        sync(pool);
+    }
+
+    /**
+     * Sync every object written so far, for single writes outside a batch.
+     * LockFile calls it before publishing a ref.
+     *
+     * @throws IOException - When IO system fails
+     */
+    static void syncWritten() throws IOException {
+        sync(null);
+    }
+
+    private static void sync(ExecutorService pool) throws IOException {
+        List<Path> files = LockManager.takeUnsynced();
+        if (files.isEmpty() || !Durability.get().syncsObjects()) {
+            return;
+        }
+        try (Trace.Span span = Trace.phase(Trace.Phase.SYNC)) {
+            // A new object is a new name in its shard, and maybe a new shard
+            Set<Path> dirs = new LinkedHashSet<>();
+            for (Path file : files) {
+                dirs.add(file.getParent());
+            }
+            for (Path dir : new ArrayList<>(dirs)) {
+                dirs.add(dir.getParent());
+            }
+            if (pool == null || files.size() == 1) {
+                for (Path file : files) {
+                    LockManager.force(file);
+                }
+                for (Path dir : dirs) {
+                    LockManager.forceDirectory(dir);
+                }
+                return;
+            }
+            List<Future<?>> syncs = new ArrayList<>();
+            for (Path file : files) {
+                syncs.add(pool.submit(() -> {
+                    LockManager.force(file);
+                    return null;
+                }));
+            }
+            for (Future<?> sync : syncs) {
+                await(sync);
+            }
+            // Only once the content is down, so no name points to lost data
+            syncs.clear();
+            for (Path dir : dirs) {
+                syncs.add(pool.submit(() -> {
+                    LockManager.forceDirectory(dir);
+                    return null;
+                }));
+            }
+            for (Future<?> sync : syncs) {
+                await(sync);
+            }
+        }
+    }
+
+    private static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing objects");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof GitletException) {
+                throw (GitletException) e.getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+}
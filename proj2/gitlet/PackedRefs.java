@@ -0,0 +1,198 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * The packed-refs file: every branch in one file, sorted by name.
+ * <p>
+ * Format, after a header line:
+ * <pre>
+ * [sha1] [branch]\n
+ * </pre>
+ * with the lines sorted by the UTF-8 bytes of the branch names.
+ * The file is memory-mapped and looked up by binary search over the lines,
+ * so finding one branch costs O(log N) and nothing is parsed up front.
+ *
+ * @author Crvena
+ * @see Refs
+ */
+class PackedRefs {
+    private static final String HEADER = "# gitlet packed-refs, sorted\n";
+    private static final int SHA1_LENGTH = Utils.UID_LENGTH;
+
+    private final File file;
+    /* The mapped file, and its identity when mapped */
+    private MappedByteBuffer buffer;
+    private Object mappedKey;
+
+    PackedRefs(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Find the sha1 a branch points to
+     * Runtime: O(log N) with N packed branches
+     *
+     * @param branch - Name of the branch
+     * @return The sha1, null if the branch isn't packed
+     */
+    String read(String branch) {
+        MappedByteBuffer buf = map();
+        if (buf == null) {
+            return null;
+        }
+        byte[] key = branch.getBytes(StandardCharsets.UTF_8);
+        int lo = HEADER.length();
+        int hi = buf.limit();
+        // Invariant: the line (if any) is in [lo, hi), lo is a line start
+        while (lo < hi) {
+            int mid = lineStart(buf, lo + (hi - lo) / 2, lo);
+            int nameStart = mid + SHA1_LENGTH + 1;
+            int nameEnd = lineEnd(buf, nameStart);
+            int cmp = compare(buf, nameStart, nameEnd, key);
+            if (cmp == 0) {
+                byte[] sha1 = new byte[SHA1_LENGTH];
+                buf.get(mid, sha1);
+                return new String(sha1, StandardCharsets.US_ASCII);
+            } else if (cmp < 0) {
+                lo = nameEnd + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read all packed branches
+     * Runtime: O(N) with N packed branches
+     *
+     * @return branch - sha1, sorted by branch
+     */
+    SortedMap<String, String> readAll() {
+        SortedMap<String, String> refs = new TreeMap<>(PackedRefs::compareNames);
+        MappedByteBuffer buf = map();
+        if (buf == null) {
+            return refs;
+        }
+        int pos = HEADER.length();
+        while (pos < buf.limit()) {
+            int nameStart = pos + SHA1_LENGTH + 1;
+            int nameEnd = lineEnd(buf, nameStart);
+            byte[] sha1 = new byte[SHA1_LENGTH];
+            byte[] name = new byte[nameEnd - nameStart];
+            buf.get(pos, sha1);
+            buf.get(nameStart, name);
+            refs.put(new String(name, StandardCharsets.UTF_8),
+                    new String(sha1, StandardCharsets.US_ASCII));
+            pos = nameEnd + 1;
+        }
+        return refs;
+    }
+
+    /**
+     * Replace the file with REFS.
+     * The new file is written to the lock file and renamed over the old one,
+     * so readers see either the old or the new file, never a torn one.
+     * Runtime: O(N log N) with N branches
+     *
+     * @param refs - branch - sha1
+     * @param lock - The lock on this file, see getFile()
+     */
+    void write(Map<String, String> refs, LockFile lock) throws IOException {
+        List<String> names = new ArrayList<>(refs.keySet());
+        names.sort(PackedRefs::compareNames);
+        StringBuilder content = new StringBuilder(HEADER);
+        for (String name : names) {
+            content.append(refs.get(name)).append(' ').append(name).append('\n');
+        }
+        lock.write(content.toString());
+        lock.commit();
+        buffer = null;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Order of branch names in the file: their UTF-8 bytes, unsigned
+     */
+    static int compareNames(String a, String b) {
+        return Arrays.compareUnsigned(
+                a.getBytes(StandardCharsets.UTF_8),
+                b.getBytes(StandardCharsets.UTF_8)
+        );
+    }
+
+    /**
+     * Map the file, again only if it changed since last time
+     *
+     * @return The mapped file, null if there is none
+     */
+    private MappedByteBuffer map() {
+        if (!file.exists()) {
+            buffer = null;
+            return null;
+        }
+        try {
+            // The file is only ever replaced by a rename, which changes its key
+            BasicFileAttributes attributes =
+                    Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            List<Object> key = Arrays.asList(attributes.fileKey(),
+                    attributes.lastModifiedTime(), attributes.size());
+            if (buffer != null && key.equals(mappedKey)) {
+                return buffer;
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                mappedKey = key;
+            }
+        } catch (IOException e) {
+            throw new GitletException("Broken packed-refs: " + e.getMessage());
+        }
+        if (buffer.limit() < HEADER.length()) {
+            throw new GitletException("Broken packed-refs: no header");
+        }
+        return buffer;
+    }
+
+    /**
+     * @return start of the line containing POS, not before FLOOR
+     */
+    private static int lineStart(MappedByteBuffer buf, int pos, int floor) {
+        while (pos > floor && buf.get(pos - 1) != '\n') {
+            pos--;
+        }
+        return pos;
+    }
+
+    /**
+     * @return position of the newline ending the line containing POS
+     */
+    private static int lineEnd(MappedByteBuffer buf, int pos) {
+        while (pos < buf.limit() && buf.get(pos) != '\n') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int compare(MappedByteBuffer buf, int start, int end, byte[] key) {
+        int length = Math.min(end - start, key.length);
+        for (int i = 0; i < length; i++) {
+            int cmp = Integer.compare(buf.get(start + i) & 0xff, key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(end - start, key.length);
+    }
+}
@@ -0,0 +1,197 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The branches of a gitlet directory.
+ * <p>
+ * A branch is either loose, one file refs/heads/[branch] holding its sha1,
+ * or packed, one line of the packed-refs file. A loose branch overrides
+ * a packed one of the same name, so updating a branch only ever writes its
+ * loose file, and pack() folds the loose files back into packed-refs.
+ * <p>
+ * Every change goes through a LockFile, and updates compare the value
+ * under the lock with the one the caller expects, so two gitlet processes
+ * can't silently overwrite each other's updates.
+ *
+ * @author Crvena
+ * @see PackedRefs
+ */
+class Refs {
+    private final File headsDir;
+    private final PackedRefs packed;
+
+    /**
+     * @param gitletDir - The .gitlet directory
+     */
+    Refs(File gitletDir) {
+        this.headsDir = Utils.join(gitletDir, "refs", "heads");
+        this.packed = new PackedRefs(Utils.join(gitletDir, "packed-refs"));
+    }
+
+    /**
+     * Get the sha1 a branch points to
+     * Runtime: O(log N) with N packed branches
+     *
+     * @param branch - Name of the branch
+     * @return The sha1, null if there is no such branch
+     */
+    String read(String branch) {
+        try (Trace.Span span = Trace.phase(Trace.Phase.REFS)) {
+            File loose = Utils.join(headsDir, branch);
+            if (loose.isFile()) {
+                return Utils.readContentsAsString(loose);
+            }
+            return packed.read(branch);
+        }
+    }
+
+    boolean exists(String branch) {
+        return read(branch) != null;
+    }
+
+    /**
+     * Create a branch
+     * Runtime: O(log N) with N packed branches
+     *
+     * @throws GitletException - When the branch already exists
+     */
+    void create(String branch, String sha1) throws IOException, GitletException {
+        store(branch, sha1, true, null);
+    }
+
+    /**
+     * Move a branch from one commit to another (compare-and-swap)
+     * Runtime: O(log N) with N packed branches
+     *
+     * @param branch   - The branch to move
+     * @param expected - The sha1 the branch must point to now, null if it must not exist
+     * @param sha1     - The sha1 to point it to
+     * @throws GitletException - When the branch was moved by someone else
+     */
+    void update(String branch, String expected, String sha1) throws IOException, GitletException {
+        store(branch, sha1, true, expected);
+    }
+
+    /**
+     * Point a branch to a commit, whatever it points to now
+     * Runtime: O(1)
+     */
+    void write(String branch, String sha1) throws IOException {
+        store(branch, sha1, false, null);
+    }
+
+    private void store(String branch, String sha1, boolean check, String expected)
+            throws IOException, GitletException {
+        File loose = Utils.join(headsDir, branch);
+        // Remote-tracking branches, remote/branch, live in a directory per remote
+        loose.getParentFile().mkdirs();
+        try (LockFile lock = LockFile.acquire(loose)) {
+            if (check) {
+                String current = read(branch);
+                if (current != null && expected == null) {
+                    throw new GitletException("A branch with that name already exists.");
+                }
+                if (!Objects.equals(current, expected)) {
+                    throw new GitletException(String.format(
+                            "Branch %s was moved by another gitlet process; try again.", branch));
+                }
+            }
+            lock.write(sha1);
+            lock.commit();
+        }
+    }
+
+    /**
+     * Delete a branch, packed first and then loose,
+     * so a crash can't bring back an old packed value.
+     * packed-refs stays locked throughout, so a concurrent pack() can't
+     * copy the loose branch into packed-refs between the two steps.
+     * Runtime: O(log N) if only loose, O(N) with N packed branches otherwise
+     */
+    void delete(String branch) throws IOException {
+        File loose = Utils.join(headsDir, branch);
+        // Same order as pack(): packed-refs, then the loose file
+        try (LockFile packedLock = LockFile.acquire(packed.getFile());
+             LockFile lock = LockFile.acquire(loose)) {
+            if (packed.read(branch) != null) {
+                SortedMap<String, String> refs = packed.readAll();
+                refs.remove(branch);
+                packed.write(refs, packedLock);
+            }
+            loose.delete();
+        }
+    }
+
+    /**
+     * List all branches
+     * Runtime: O(N + L log L) with N packed and L loose branches
+     *
+     * @return The names of all branches, sorted
+     */
+    List<String> list() {
+        SortedSet<String> names = new TreeSet<>(packed.readAll().keySet());
+        names.addAll(readLoose().keySet());
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * Move all loose branches into packed-refs, and delete the loose files
+     * Runtime: O(N log N) with N branches
+     *
+     * @return The number of branches packed
+     */
+    int pack() throws IOException {
+        Map<String, String> loose;
+        try (LockFile packedLock = LockFile.acquire(packed.getFile())) {
+            loose = readLoose();
+            if (loose.isEmpty()) {
+                return 0;
+            }
+            SortedMap<String, String> refs = packed.readAll();
+            refs.putAll(loose);
+            packed.write(refs, packedLock);
+        }
+        // Drop each loose file, unless it was moved or deleted while packing
+        for (Map.Entry<String, String> entry : loose.entrySet()) {
+            File file = Utils.join(headsDir, entry.getKey());
+            try (LockFile lock = LockFile.acquire(file)) {
+                if (file.isFile() && entry.getValue().equals(Utils.readContentsAsString(file))) {
+                    file.delete();
+                }
+            } catch (GitletException e) {
+                // Busy, the loose file still wins over the packed one
+            }
+        }
+        return loose.size();
+    }
+
+    /**
+     * @return branch - sha1 of all loose branches
+     */
+    private Map<String, String> readLoose() {
+        if (!headsDir.isDirectory()) {
+            throw new GitletException("Broken Gitlet Repository!");
+        }
+        Map<String, String> refs = new HashMap<>();
+        readLoose(headsDir, "", refs);
+        return refs;
+    }
+
+    private void readLoose(File dir, String prefix, Map<String, String> refs) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String branch = prefix + file.getName();
+            if (file.isDirectory()) {
+                readLoose(file, branch + "/", refs);
+            } else if (!branch.endsWith(".lock")) {
+                refs.put(branch, Utils.readContentsAsString(file));
+            }
+        }
+    }
+}
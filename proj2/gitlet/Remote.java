@@ -0,0 +1,107 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Another gitlet repository on this file system, known by a name.
+ * <p>
+ * The remote named NAME is the file .gitlet/remotes/NAME, holding the path
+ * of its .gitlet directory. Its refs, objects and commit graph are used in
+ * place, through the same classes as the local ones.
+ *
+ * @author Crvena
+ */
+class Remote {
+    final String name;
+    final File gitletDir;
+    final Refs refs;
+    final LockManager locks;
+    final Bundle.Store store;
+
+    private Remote(String name, File gitletDir) {
+        this.name = name;
+        this.gitletDir = gitletDir;
+        this.refs = new Refs(gitletDir);
+        this.locks = new LockManager(gitletDir);
+        this.store = new Bundle.Store(
+                Utils.join(gitletDir, "objects"),
+                new CommitGraph(Utils.join(gitletDir, "commit-graph"), this::readCommit),
+                this::readCommit,
+                Utils.join(gitletDir, "logs", "refs", "heads")
+        );
+    }
+
+    /**
+     * Remember a remote
+     *
+     * @param remotesDir - The directory of remotes, .gitlet/remotes
+     * @param name       - The name of the remote
+     * @param path       - The path of its .gitlet directory, with / as separator
+     * @throws GitletException - When there's a remote with that name already
+     */
+    static void add(File remotesDir, String name, String path) throws IOException {
+        File file = Utils.join(remotesDir, name);
+        if (file.exists()) {
+            throw new GitletException("A remote with that name already exists.");
+        }
+        remotesDir.mkdir();
+        Utils.writeContents(file, path.replace("/", File.separator));
+    }
+
+    /**
+     * Forget a remote, its remote-tracking branches are kept
+     *
+     * @throws GitletException - When there's no remote with that name
+     */
+    static void remove(File remotesDir, String name) {
+        File file = Utils.join(remotesDir, name);
+        if (!file.isFile()) {
+            throw new GitletException("A remote with that name does not exist.");
+        }
+        file.delete();
+    }
+
+    /**
+     * @return The remote named NAME
+     * @throws GitletException - When there's no such remote, or its directory is gone
+     */
+    static Remote open(File remotesDir, String name) {
+        File file = Utils.join(remotesDir, name);
+        if (!file.isFile()) {
+            throw new GitletException("A remote with that name does not exist.");
+        }
+        File gitletDir = new File(Utils.readContentsAsString(file));
+        if (!gitletDir.isDirectory()) {
+            throw new GitletException("Remote directory not found.");
+        }
+        return new Remote(name, gitletDir);
+    }
+
+    /**
+     * @return The branch the remote's HEAD is on
+     */
+    String currentBranch() {
+        String head = Utils.readContentsAsString(Utils.join(gitletDir, "HEAD"));
+        return head.substring("refs/heads/".length());
+    }
+
+    /**
+     * The local branch that follows BRANCH of this remote
+     */
+    String trackingBranch(String branch) {
+        return name + "/" + branch;
+    }
+
+    private Commit readCommit(String sha1) {
+        File file = store.objectFile(sha1);
+        if (!file.isFile()) {
+            throw new GitletException("Remote object " + sha1 + " doesn't exist!");
+        }
+        try {
+            return Utils.readObject(file, Commit.class);
+        } catch (IllegalArgumentException e) {
+            throw new GitletException("Broken remote object " + sha1 + ": " + e.getMessage());
+        }
+    }
+}
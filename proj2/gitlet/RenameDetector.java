@@ -0,0 +1,314 @@
+package gitlet;
+
+import java.util.*;
+
+/**
+ * Pairs removed paths with added paths whose content is the same or similar.
+ * <p>
+ * Blob sha1s include the filename, so they can't be compared across paths.
+ * Instead every candidate is reduced to a content id (sha1 of the bytes only)
+ * and a fingerprint of chunk hashes, and the file data is dropped right away.
+ * <p>
+ * Exact renames are found through a contentId-to-paths index in O(N).
+ * Near renames are scored with the fingerprints: an inverted index from chunk
+ * hash to sources votes for at most MAX_CANDIDATES sources per target, and
+ * only those are scored, so a refactor moving thousands of files never turns
+ * into a sources-times-targets comparison.
+ *
+ * @author Crvena
+ */
+class RenameDetector {
+    /**
+     * Minimum similarity (in percent) for a near rename
+     */
+    static final int DEFAULT_MIN_SCORE = 50;
+    /**
+     * Sources scored per target, picked by shared chunk bytes
+     */
+    private static final int MAX_CANDIDATES = 8;
+    /**
+     * Chunks shared by more sources than this (blank lines, braces...)
+     * carry no signal and are left out of the inverted index
+     */
+    private static final int MAX_POSTINGS = 64;
+    /**
+     * Chunks end at a newline or after this many bytes
+     */
+    private static final int MAX_CHUNK = 64;
+
+    /**
+     * A detected rename (or copy) from SOURCE to TARGET
+     */
+    static final class Pair {
+        final String source;
+        final String target;
+        /* Similarity in percent, 100 for an exact match */
+        final int score;
+        final boolean copy;
+
+        private Pair(String source, String target, int score, boolean copy) {
+            this.source = source;
+            this.target = target;
+            this.score = score;
+            this.copy = copy;
+        }
+
+        @Override
+        public String toString() {
+            return source + " -> " + target;
+        }
+    }
+
+    /**
+     * Content id and fingerprint of one candidate file
+     */
+    private static final class Entry {
+        final String path;
+        final String contentId;
+        final long size;
+        /* Sorted distinct chunk hashes, with the bytes each one covers */
+        final int[] hashes;
+        final int[] weights;
+
+        Entry(String path, byte[] data) {
+            this.path = path;
+            this.contentId = contentId(data);
+            this.size = data.length;
+            TreeMap<Integer, Integer> chunks = new TreeMap<>();
+            int start = 0;
+            for (int i = 0; i < data.length; i++) {
+                if (data[i] == '\n' || i - start + 1 == MAX_CHUNK) {
+                    chunks.merge(hashChunk(data, start, i + 1), i + 1 - start, Integer::sum);
+                    start = i + 1;
+                }
+            }
+            if (start < data.length) {
+                chunks.merge(hashChunk(data, start, data.length), data.length - start, Integer::sum);
+            }
+            this.hashes = new int[chunks.size()];
+            this.weights = new int[chunks.size()];
+            int i = 0;
+            for (Map.Entry<Integer, Integer> chunk : chunks.entrySet()) {
+                hashes[i] = chunk.getKey();
+                weights[i] = chunk.getValue();
+                i++;
+            }
+        }
+    }
+
+    private final List<Entry> sources = new ArrayList<>();
+    private final List<Entry> copySources = new ArrayList<>();
+    private final List<Entry> targets = new ArrayList<>();
+    private final int minScore;
+    private boolean findCopies;
+
+    RenameDetector() {
+        this(DEFAULT_MIN_SCORE);
+    }
+
+    RenameDetector(int minScore) {
+        this.minScore = minScore;
+    }
+
+    /**
+     * Add a path that disappeared
+     */
+    void addSource(String path, byte[] data) {
+        sources.add(new Entry(path, data));
+    }
+
+    /**
+     * Add a path that still exists (e.g. was modified) but may have been
+     * copied from. Enables copy detection.
+     */
+    void addCopySource(String path, byte[] data) {
+        copySources.add(new Entry(path, data));
+        findCopies = true;
+    }
+
+    /**
+     * Add a path that appeared
+     */
+    void addTarget(String path, byte[] data) {
+        targets.add(new Entry(path, data));
+    }
+
+    /**
+     * Pair the sources with the targets.
+     * A source is renamed at most once; when copy detection is enabled,
+     * leftover targets may also be copies of any source.
+     * Runtime: O(N) for exact matches,
+     *          O(N * MAX_CANDIDATES * C) for near matches with C chunks a file
+     *
+     * @return The pairs found, sorted by target
+     */
+    List<Pair> detect() {
+        List<Pair> pairs = new ArrayList<>();
+        List<Entry> unmatched = new ArrayList<>();
+        Set<String> renamedSources = new HashSet<>();
+
+        // Exact renames: contentId -> sources not yet claimed
+        Map<String, Deque<Entry>> byContent = new HashMap<>();
+        for (Entry source : sources) {
+            byContent.computeIfAbsent(source.contentId, k -> new ArrayDeque<>()).add(source);
+        }
+        for (Entry target : targets) {
+            Deque<Entry> same = byContent.get(target.contentId);
+            if (same != null && !same.isEmpty()) {
+                Entry source = same.remove();
+                renamedSources.add(source.path);
+                pairs.add(new Pair(source.path, target.path, 100, false));
+            } else {
+                unmatched.add(target);
+            }
+        }
+
+        // Near renames among the rest
+        List<Entry> remaining = new ArrayList<>();
+        for (Entry source : sources) {
+            if (!renamedSources.contains(source.path)) {
+                remaining.add(source);
+            }
+        }
+        Set<String> pairedTargets = new HashSet<>();
+        for (Pair pair : bestMatches(remaining, unmatched, false)) {
+            pairs.add(pair);
+            pairedTargets.add(pair.target);
+        }
+
+        // Copies: every source (renamed or not) plus the copy-only ones
+        if (findCopies) {
+            List<Entry> leftTargets = new ArrayList<>();
+            for (Entry target : unmatched) {
+                if (!pairedTargets.contains(target.path)) {
+                    leftTargets.add(target);
+                }
+            }
+            List<Entry> allSources = new ArrayList<>(sources);
+            allSources.addAll(copySources);
+            pairs.addAll(bestMatches(allSources, leftTargets, true));
+        }
+
+        pairs.sort(Comparator.comparing(p -> p.target));
+        return pairs;
+    }
+
+    /**
+     * Score every target against its bounded candidate set and assign
+     * greedily, best score first.
+     *
+     * @param copy - whether a source may be used by more than one target
+     */
+    private List<Pair> bestMatches(List<Entry> from, List<Entry> to, boolean copy) {
+        List<Pair> result = new ArrayList<>();
+        if (from.isEmpty() || to.isEmpty()) {
+            return result;
+        }
+        Map<String, Entry> exact = new HashMap<>();
+        Map<Integer, List<Integer>> postings = new HashMap<>();
+        for (int i = 0; i < from.size(); i++) {
+            Entry source = from.get(i);
+            exact.putIfAbsent(source.contentId, source);
+            for (int h : source.hashes) {
+                postings.computeIfAbsent(h, k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        List<Pair> scored = new ArrayList<>();
+        for (Entry target : to) {
+            Entry same = exact.get(target.contentId);
+            if (same != null) {
+                scored.add(new Pair(same.path, target.path, 100, copy));
+                continue;
+            }
+            Map<Integer, Long> votes = new HashMap<>();
+            for (int k = 0; k < target.hashes.length; k++) {
+                List<Integer> owners = postings.get(target.hashes[k]);
+                if (owners == null || owners.size() > MAX_POSTINGS) {
+                    continue;
+                }
+                for (int owner : owners) {
+                    votes.merge(owner, (long) target.weights[k], Long::sum);
+                }
+            }
+            List<Map.Entry<Integer, Long>> candidates = new ArrayList<>(votes.entrySet());
+            candidates.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+            int limit = Math.min(MAX_CANDIDATES, candidates.size());
+            for (int c = 0; c < limit; c++) {
+                Entry source = from.get(candidates.get(c).getKey());
+                long smaller = Math.min(source.size, target.size);
+                long larger = Math.max(source.size, target.size);
+                if (smaller * 100 < larger * minScore) {
+                    // Sizes alone rule the pair out
+                    continue;
+                }
+                int score = similarity(source, target);
+                if (score >= minScore) {
+                    scored.add(new Pair(source.path, target.path, score, copy));
+                }
+            }
+        }
+
+        scored.sort((a, b) -> b.score != a.score
+                ? Integer.compare(b.score, a.score)
+                : a.target.compareTo(b.target));
+        Set<String> usedSources = new HashSet<>();
+        Set<String> usedTargets = new HashSet<>();
+        for (Pair pair : scored) {
+            if (usedTargets.contains(pair.target)
+                    || (!copy && usedSources.contains(pair.source))) {
+                continue;
+            }
+            usedTargets.add(pair.target);
+            usedSources.add(pair.source);
+            result.add(pair);
+        }
+        return result;
+    }
+
+    /**
+     * Similarity of two files: bytes of SOURCE found again in TARGET,
+     * over the size of the larger one.
+     * Runtime: O(A + B) with A, B chunks in the two fingerprints
+     *
+     * @return The score in percent
+     */
+    private static int similarity(Entry source, Entry target) {
+        long larger = Math.max(source.size, target.size);
+        if (larger == 0) {
+            return 100;
+        }
+        long common = 0;
+        int i = 0;
+        int j = 0;
+        while (i < source.hashes.length && j < target.hashes.length) {
+            if (source.hashes[i] == target.hashes[j]) {
+                common += Math.min(source.weights[i], target.weights[j]);
+                i++;
+                j++;
+            } else if (source.hashes[i] < target.hashes[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return (int) (common * 100 / larger);
+    }
+
+    /**
+     * The id of a file's content, independent of its filename
+     */
+    static String contentId(byte[] data) {
+        return Utils.sha1((Object) data);
+    }
+
+    private static int hashChunk(byte[] data, int from, int to) {
+        // FNV-1a
+        int h = 0x811c9dc5;
+        for (int i = from; i < to; i++) {
+            h ^= data[i] & 0xff;
+            h *= 0x01000193;
+        }
+        return h;
+    }
+}
@@ -1,11 +1,24 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
 import static gitlet.Utils.*;
 
@@ -26,6 +39,9 @@ public class Repository {
     public static final File GITLET_DIR = join(CWD, ".gitlet");
     // public static final File BRANCHES_DIR      = join(GITLET_DIR, "branches");
     public static final File STAGE_FILE = join(GITLET_DIR, "stage");
+    /* Changes to the stage since STAGE_FILE was written, see StageJournal */
+    public static final File STAGE_JOURNAL_FILE = join(GITLET_DIR, "stage-journal");
+    static final StageJournal STAGE_JOURNAL = new StageJournal(STAGE_JOURNAL_FILE);
     public static final File LOGS_DIR = join(GITLET_DIR, "logs");
     public static final File LOGS_HEAD_FILE = join(GITLET_DIR, "logs", "HEAD");
     public static final File LOGS_REFS_DIR = join(GITLET_DIR, "logs", "refs");
@@ -33,10 +49,43 @@ public class Repository {
     public static final File REMOVED_LOG = Utils.join(GITLET_DIR, "logs", "refs", "removed");
     public static final File ROOT_HEAD_FILE = join(GITLET_DIR, "HEAD");
     public static final File OBJECTS_DIR = join(GITLET_DIR, "objects");
+    /* Pieces of large blobs, see ChunkStore */
+    public static final File CHUNKS_DIR = join(GITLET_DIR, "chunks");
     public static final File REFS_DIR = join(GITLET_DIR, "refs");
     public static final File REFS_HEADS_DIR = join(GITLET_DIR, "refs", "heads");
+    public static final File COMMIT_GRAPH_FILE = join(GITLET_DIR, "commit-graph");
+    public static final File REMOTES_DIR = join(GITLET_DIR, "remotes");
+    /* In a partial clone, names the remote to fetch missing blobs from */
+    public static final File PROMISOR_FILE = join(GITLET_DIR, "promisor");
+    /* Patterns of the files to check out, see SparseCheckout */
+    public static final File SPARSE_FILE = join(GITLET_DIR, "sparse-checkout");
+    /* How much to sync to disk, see Durability */
+    public static final File DURABILITY_FILE = join(GITLET_DIR, "durability");
+
+    /**
+     * The branches, loose and packed
+     */
+    static final Refs REFS = new Refs(GITLET_DIR);
+    /**
+     * Locks shared with other gitlet processes
+     */
+    static final LockManager LOCKS = new LockManager(GITLET_DIR);
+    /**
+     * The chunks of blobs of ChunkStore.THRESHOLD bytes or more
+     */
+    static final ChunkStore CHUNKS = new ChunkStore(CHUNKS_DIR);
+    /**
+     * Decoded commits and blobs, shared by all commands of this process
+     */
+    static final ObjectCache OBJECT_CACHE = new ObjectCache(ObjectCache.DEFAULT_CAPACITY);
+
+    /**
+     * Parents, timestamps and changed-path filters of all commits
+     */
+    static final CommitGraph COMMIT_GRAPH = new CommitGraph(COMMIT_GRAPH_FILE, Repository::readCommitObject);
 
     public static final String DEFAULT_BRANCH = "master";
+    public static final String DEFAULT_REMOTE = "origin";
 
     /**
      * Init the gitlet Repository
@@ -48,7 +97,7 @@ public class Repository {
             makeEssentialDir();
             createInitFile();
             initCommit = makeInitCommit();
-            updateRootHead(initCommit.getBranch());
+            updateRootHead(initCommit.getBranch(), null);
         } catch (IOException e) {
             ErrorHandler.handleJavaException(e);
         }
@@ -60,10 +109,10 @@ public class Repository {
      * There're five cases in total that can occur:
      * 1. File not changed : filename equals, sha1 equals
      * 2. File changed     : filename equals, sha1 unequals
-     * 3. File renamed     : filename unequals, sha1 equals (how?) (two ops)
-     * - If you use an iterator to iterate through all entries in
-     * the blobs and check if sha1 equals, that will be O(n) time
-     * - Git uses two lists: One deleted, one Added, how to implement?
+     * 3. File renamed     : filename unequals, sha1 equals (two ops)
+     * - Staged as one remove and one add, like git does.
+     * - RenameDetector pairs them up again by content when
+     * status, diff or merge need to know (see detectRenames).
      * 4. File is new      : filename doesn't exist
      * 5. File deleted     : filename exists, !file.exists()
      * 6. File changed and renamed??? -> separate to two
@@ -75,29 +124,29 @@ public class Repository {
      * @param filename file to be staged.
      */
     static void add(final String filename) {
-        Commit staged = getStagedCommit();
-        if (staged.readdFromRemoved(filename)) {
+        StagedFile staged = readStagedFile(filename);
+        if (staged.readdFromRemoved()) {
             // File already in REMOVED
             // Should restore the file (required)
-            String removedSha1 = staged.getBlobSha1(filename);
+            String removedSha1 = staged.getCommittedSha1();
             restoreBlobContent(removedSha1);
-            writeStageFile(staged);
+            journalStage(staged);
         } else try {
             Blob blob = new Blob(filename);
             boolean addSuccessful = staged.addToStage(blob);
             if (addSuccessful) {
-                writeStageFile(staged);
+                journalStage(staged);
             }
         } catch (GitletException e) {
             // File not exist in workspace
             // Case 5 or error
-            boolean removeSuccessful = staged.removeFromAll(filename);
+            boolean removeSuccessful = staged.removeFromAll();
             if (!removeSuccessful) {
                 // WARN: This is unsure whether to implement this behaviour
                 //       Need to refer to spec if failed.
                 throw new GitletException("File does not exist.");
             }
-            writeStageFile(staged);
+            journalStage(staged);
         } catch (IOException e) {
             ErrorHandler.handleJavaException(e);
         }
@@ -117,11 +166,11 @@ public class Repository {
      * @param filename - file to remove from stage
      */
     static void remove(final String filename) {
-        Commit staged = getStagedCommit();
-        boolean stageRemoveSuccess = staged.removeFromStage(filename);
+        StagedFile staged = readStagedFile(filename);
+        boolean stageRemoveSuccess = staged.removeFromStage();
         boolean blobsRemoveSuccess = false;
         if (!stageRemoveSuccess) {
-            blobsRemoveSuccess = staged.removeFromCommit(filename);
+            blobsRemoveSuccess = staged.removeFromCommit();
         }
 
         // Hashmap constant time
@@ -134,14 +183,66 @@ public class Repository {
         if (!stageRemoveSuccess && !blobsRemoveSuccess) {
             throw new GitletException("No reason to remove the file.");
         } else {
-            writeStageFile(staged);
+            journalStage(staged);
+        }
+    }
+
+    /**
+     * The stage state of one file for add and rm, without building the stage:
+     * the stage journal's last record of it if any, else the stage file.
+     * The committed blob comes from the stage file, which holds HEAD's
+     * blobs, or from HEAD when there's no stage file.
+     * Runtime: O(J) with journal of size J, plus reading the stage file or HEAD
+     *
+     * @param filename - The file
+     */
+    private static StagedFile readStagedFile(String filename) {
+        StageJournal.Record record = STAGE_JOURNAL.find(filename);
+        Commit stage;
+        if (STAGE_FILE.exists()) {
+            try (Trace.Span span = Trace.phase(Trace.Phase.STAGE_READ)) {
+                stage = readCommitObject(STAGE_FILE);
+            }
+        } else {
+            stage = getHeadCommit();
+        }
+        String committed = stage.getBlobSha1(filename);
+        if (record != null) {
+            Blob added = record.sha1 != null ? Blob.stored(filename, record.sha1) : null;
+            return new StagedFile(filename, committed, added, record.removed);
+        }
+        if (!stage.isStaged()) {
+            return new StagedFile(filename, committed, null, false);
+        }
+        return new StagedFile(filename, committed,
+                stage.getAddedBlob(filename), stage.isInRemoved(filename));
+    }
+
+    /**
+     * Record the stage state of a file after add or rm, see StageJournal.
+     * An added blob goes to the object store first. Once the journal is
+     * full, the whole stage is built once to fold it into the stage file.
+     * Runtime: O(1), plus writing the added blob
+     */
+    private static void journalStage(StagedFile staged) {
+        try {
+            Blob added = staged.getAddedBlob();
+            if (added != null) {
+                writeBlobObject(added);
+            }
+            STAGE_JOURNAL.append(staged.getFilename(), added, staged.isRemoved());
+            if (STAGE_JOURNAL.isFull()) {
+                writeStageFile(getStagedCommit());
+            }
+        } catch (IOException e) {
+            ErrorHandler.handleJavaException(e);
         }
     }
 
     /**
      * Commit a new snapshot from staged changes
-     * 1. Save the blobs in the added
-     * 2. Save the commit object
+     * 1. Save the blobs in the added, concurrently, and sync them
+     * 2. Save the commit object, sync it, then move the branch to it
      * 3. Delete the stage file
      * <p>
      * Runtime: >O(N) (hasStagedChanges())
@@ -160,12 +261,7 @@ public class Repository {
         }
         try {
             Commit newCommit = Commit.finishCommit(staged, branch, message, new Date());
-            for (Blob b : staged.getAddedBlobs()) {
-                try {
-                    writeBlobObject(b);
-                    // Ignore hash collision
-                } catch (GitletException e) {}
-            }
+            writeBlobObjects(staged.getAddedBlobs());
             writeCommitFiles(newCommit);
             clearStageFile();
         } catch (IOException e) {
@@ -178,25 +274,87 @@ public class Repository {
      * Runtime: O(N) with N commits in current branch
      */
     static void log() {
-        Commit head = getHeadCommit();
-        while (head != null) {
+        log(Integer.MAX_VALUE, null, null, false, null);
+    }
+
+    /**
+     * Print the log, newest first.
+     * Commits are read one at a time while printing, so the walk stops
+     * as soon as MAXCOUNT commits are out or SINCE is passed.
+     * Runtime: O(K log B) with K commits printed or skipped, B branches
+     *
+     * @param maxCount - The most commits to print
+     * @param since    - Stop at the first commit older than this, null for no limit
+     * @param until    - Skip commits newer than this, null for no limit
+     * @param all      - Print every branch, following merged parents too,
+     *                   instead of the first parents of the current branch
+     * @param path       - Print only commits changing this file, null for all commits
+     */
+    static void log(int maxCount, Date since, Date until, boolean all, String path) {
+        List<String> starts = new ArrayList<>();
+        if (all) {
+            for (String branch : getBranches()) {
+                starts.add(getHeadCommit(branch).getSha1());
+            }
+        } else {
+            starts.add(getHeadCommit().getSha1());
+        }
+        CommitWalker walker = new CommitWalker(COMMIT_GRAPH, starts, !all);
+        int printed = 0;
+        while (printed < maxCount && walker.hasNext()) {
+            CommitGraph.Entry entry = walker.nextEntry();
+            if (since != null && entry.timestamp < since.getTime()) {
+                // Everything left in the walk is older
+                break;
+            }
+            if (until != null && entry.timestamp > until.getTime()) {
+                continue;
+            }
+            if (path != null && !entry.mayHaveChanged(path)) {
+                // Most commits end here, without reading anything
+                continue;
+            }
+            Commit commit = readCommitObject(entry.sha1);
+            if (path != null && !changesFile(commit, path)) {
+                // False positive of the filter
+                continue;
+            }
             System.out.println("===");
-            head.printCommitInfo();
+            commit.printCommitInfo();
             System.out.println();
-            head = head.getParent();
+            printed++;
         }
     }
 
+    /**
+     * Print the commit that last changed each line of a file
+     * Runtime: O(H) with H commits in the history of the head commit,
+     *          plus one diff for each commit changing the file
+     * @param filename - The file to blame
+     * @throws GitletException - When the file isn't in the head commit
+     */
+    static void blame(String filename) throws GitletException {
+        Blame.of(COMMIT_GRAPH, getHeadCommit(), filename).print();
+    }
+
+    /**
+     * Check whether a commit changes a file from its first parent
+     * Runtime: O(1), one object read
+     */
+    private static boolean changesFile(Commit commit, String filename) {
+        String before = commit.getParentSha1() != null
+                ? readCommitObject(commit.getParentSha1()).getBlobSha1(filename)
+                : null;
+        return !Objects.equals(commit.getBlobSha1(filename), before);
+    }
+
     /**
      * Print the global log of all commits, regardless of the order
      * Runtime: O(N) with N total commits
      */
     static void globalLog() {
-        List<String> logs = Utils.plainFilenamesIn(LOGS_REFS_HEADS_DIR);
-        assert logs != null;
         try {
-            for (String filename: logs) {
-                File logFile = Utils.join(LOGS_REFS_HEADS_DIR, filename);
+            for (File logFile : getBranchLogs()) {
                 String[] lines = Utils.readContentsAsString(logFile).split("\n");
                 for (int i = lines.length - 1; i >= 0; i--) {
                     printLogLineInfo(lines[i]);
@@ -242,12 +400,9 @@ public class Repository {
      * @throws GitletException - When no such commit with the same message exists
      */
     static void find(String queryMsg) throws GitletException {
-        List<String> logs = Utils.plainFilenamesIn(LOGS_REFS_HEADS_DIR);
         boolean found = false;
-        assert logs != null;
         try {
-            for (String filename: logs) {
-                File logFile = Utils.join(LOGS_REFS_HEADS_DIR, filename);
+            for (File logFile : getBranchLogs()) {
                 // If findOneFile returns true, found will always come true
                 found = found || findOneFile(logFile, queryMsg);
             }
@@ -263,6 +418,19 @@ public class Repository {
         }
     }
 
+    /**
+     * @return The log files of all branches, remote-tracking ones included, sorted
+     */
+    private static List<File> getBranchLogs() {
+        try (Stream<Path> paths = Files.walk(LOGS_REFS_HEADS_DIR.toPath())) {
+            return paths.filter(Files::isRegularFile).sorted()
+                    .map(Path::toFile).collect(Collectors.toList());
+        } catch (IOException e) {
+            ErrorHandler.handleJavaException(e);
+            throw new AssertionError("not reached");
+        }
+    }
+
     private static boolean findOneFile(File logFile, String queryMsg) {
         boolean found = false;
         String[] lines = Utils.readContentsAsString(logFile).split("\n");
@@ -280,22 +448,19 @@ public class Repository {
 
 
     static void createNewBranch(String name) throws GitletException {
-        final File BRANCH_FILE = Utils.join(REFS_HEADS_DIR, name);
-        if (BRANCH_FILE.exists()) {
+        if (REFS.exists(name)) {
             throw new GitletException("A branch with that name already exists.");
         }
         try {
-            BRANCH_FILE.createNewFile();
             String headSha1 = getHeadCommit().getSha1();
-            Utils.writeContents(BRANCH_FILE, headSha1);
+            REFS.create(name, headSha1);
         } catch (IOException e) {
             ErrorHandler.handleJavaException(e);
         }
     }
 
     static void removeBranch(String branch) throws GitletException {
-        final File BRANCH_FILE = Utils.join(REFS_HEADS_DIR, branch);
-        if (!BRANCH_FILE.exists()) {
+        if (!REFS.exists(branch)) {
             throw new GitletException("A branch with that name does not exist.");
         }
         String current = getCurrentBranch();
@@ -307,14 +472,354 @@ public class Repository {
             if (!REMOVED_LOG.exists()) {
                 REMOVED_LOG.createNewFile();
             }
+            if (BRANCH_LOG.exists()) {
+                String oldContent = Utils.readContentsAsString(REMOVED_LOG);
+                String appendContent = Utils.readContentsAsString(BRANCH_LOG);
+                Utils.writeContents(REMOVED_LOG, oldContent, appendContent);
+                BRANCH_LOG.delete();
+            }
+            REFS.delete(branch);
+        } catch (IOException e) {
+            ErrorHandler.handleJavaException(e);
+        }
+    }
+
+    /**
+     * Move all loose branches into the packed-refs file
+     * Runtime: O(N log N) with N branches
+     */
+    static void packRefs() {
+        try {
+            REFS.pack();
+        } catch (IOException e) {
+            ErrorHandler.handleJavaException(e);
+        }
+    }
+
+    /**
+     * Delete the objects unreachable from every branch and from the stage,
+     * if they're older than GRACEMILLIS
+     * Runtime: O(C + B + N) with C reachable commits of B blobs, N objects
+     *
+     * @param graceMillis - How long to keep unreachable objects around
+     */
+    static void gc(long graceMillis) {
+        GarbageCollector collector = new GarbageCollector(OBJECTS_DIR, graceMillis);
+        List<String> roots = new ArrayList<>();
+        for (String branch : REFS.list()) {
+            roots.add(REFS.read(branch));
+        }
+        if (STAGE_FILE.exists() || STAGE_JOURNAL.exists()) {
+            Commit staged = getStagedCommit();
+            roots.add(staged.getParentSha1());
+            if (staged.getMergedParentSha1() != null) {
+                roots.add(staged.getMergedParentSha1());
+            }
+            List<String> stagedBlobs = new ArrayList<>();
+            for (Blob blob : staged.getAddedBlobs()) {
+                stagedBlobs.add(blob.getSha1());
+            }
+            collector.markBlobs(stagedBlobs);
+        }
+        collector.markCommits(roots);
+        try {
+            collector.sweep();
+        } catch (IOException e) {
+            ErrorHandler.handleJavaException(e);
+        }
+        System.out.printf("Removed %d unreachable objects, freed %d bytes.%n",
+                collector.getRemoved(), collector.getFreed());
+    }
+
+    /**
+     * Check the refs, HEAD, the stage and every object for corruption,
+     * printing each problem found
+     * Runtime: O(N) with N bytes of objects, spread over all processors
+     */
+    static void fsck() {
+        Fsck fsck = new Fsck(OBJECTS_DIR, PROMISOR_FILE.exists());
+        String branch = ROOT_HEAD_FILE.exists() ? getCurrentBranch() : null;
+        fsck.checkRefs(REFS, branch);
+        fsck.checkStage(STAGE_FILE, STAGE_JOURNAL_FILE, branch != null ? REFS.read(branch) : null);
+        try {
+            fsck.checkObjects();
+        } catch (IOException | InterruptedException e) {
+            ErrorHandler.handleJavaException(e);
+        }
+        System.out.printf("Checked %d objects, found %d problems.%n",
+                fsck.getChecked(), fsck.getProblems());
+    }
+
+    /**
+     * Write the files of a commit to stdout as a tar archive,
+     * without touching the working directory
+     * Runtime: O(N) with N bytes of files
+     *
+     * @param target  - A commit id or a branch name
+     * @param gzip    - Whether to compress the archive
+     * @param threads - Threads to read blobs ahead with, 0 for none
+     * @throws GitletException - When there's no such commit
+     */
+    static void archive(String target, boolean gzip, int threads) throws GitletException {
+        String branchHead = REFS.read(target);
+        Commit commit = branchHead != null ? readCommitObject(branchHead) : getCommit(target);
+        fetchMissingObjects(commit.getAllBlobs().values());
+        FileOutputStream stdout = new FileOutputStream(FileDescriptor.out);
+        long mtime = commit.getTimestamp().getTime() / 1000;
+        try (OutputStream out = gzip
+                ? new GZIPOutputStream(new BufferedOutputStream(stdout, 1 << 16), 1 << 16)
+                : new BufferedOutputStream(stdout, 1 << 16)) {
+            new Archive(out, gzip ? null : stdout.getChannel(), mtime)
+                    .writeAll(commit.getAllBlobs(), threads);
+        } catch (IOException e) {
+            // stdout is the archive, and closed by now
+            ErrorHandler.handleOutputException(e);
+        }
+    }
+
+    static void addRemote(String name, String path) throws GitletException {
+        try {
+            Remote.add(REMOTES_DIR, name, path);
         } catch (IOException e) {
             ErrorHandler.handleJavaException(e);
         }
-        String oldContent = Utils.readContentsAsString(REMOVED_LOG);
-        String appendContent = Utils.readContentsAsString(BRANCH_LOG);
-        Utils.writeContents(REMOVED_LOG, oldContent, appendContent);
-        BRANCH_FILE.deleteOnExit();
-        BRANCH_LOG.deleteOnExit();
+    }
+
+    static void removeRemote(String name) throws GitletException {
+        Remote.remove(REMOTES_DIR, name);
+    }
+
+    /**
+     * Copy the commits and blobs of a remote branch that are missing here,
+     * and point the branch [remote]/[branch] to its head
+     * Runtime: O(C * F + N) with C missing commits of F files, N bytes sent
+     *
+     * @param remoteName - The name of the remote
+     * @param branch     - The branch of the remote
+     * @throws GitletException - When the remote or its branch doesn't exist
+     */
+    static void fetch(String remoteName, String branch) throws GitletException {
+        Remote remote = Remote.open(REMOTES_DIR, remoteName);
+        String want = remote.refs.read(branch);
+        if (want == null) {
+            throw new GitletException("That remote does not have that branch.");
+        }
+        Bundle.Store local = getLocalStore();
+        Bundle bundle = Bundle.negotiate(remote.store, local, want);
+        try {
+            bundle.transfer(remote.store, local);
+            bundle.record(local, remote.trackingBranch(branch));
+            REFS.write(remote.trackingBranch(branch), want);
+        } catch (IOException e) {
+            ErrorHandler.handleJavaException(e);
+        }
+    }
+
+    /**
+     * Copy the commits and blobs of the current branch that a remote is missing,
+     * and move its branch to the current head
+     * Runtime: O(C * F + N) with C missing commits of F files, N bytes sent
+     *
+     * @param remoteName - The name of the remote
+     * @param branch     - The branch of the remote to move, created if needed
+     * @throws GitletException - When the remote branch isn't in the current history
+     */
+    static void push(String remoteName, String branch) throws GitletException {
+        Remote remote = Remote.open(REMOTES_DIR, remoteName);
+        String head = getHeadCommit().getSha1();
+        Bundle.Store local = getLocalStore();
+        try (LockManager.Handle lock = remote.locks.lockStage()) {
+            String remoteHead = remote.refs.read(branch);
+            if (remoteHead != null && !isAncestor(remoteHead, head)) {
+                throw new GitletException("Please pull down remote changes before pushing.");
+            }
+            Bundle bundle = Bundle.negotiate(local, remote.store, head);
+            fetchMissingObjects(bundle.getBlobs());
+            bundle.transfer(local, remote.store);
+            bundle.record(remote.store, branch);
+            remote.refs.update(branch, remoteHead, head);
+        } catch (IOException e) {
+            ErrorHandler.handleJavaException(e);
+        }
+    }
+
+    /**
+     * Fetch a remote branch and merge it into the current branch
+     */
+    static void pull(String remoteName, String branch) throws GitletException {
+        fetch(remoteName, branch);
+        merge(remoteName + "/" + branch);
+    }
+
+    /**
+     * Make the current directory a copy of another repository, with the
+     * remote "origin" pointing to it, and check out its current branch.
+     * <p>
+     * A partial clone copies the commits only. Blobs are then fetched
+     * from origin when first needed, see fetchMissingObjects().
+     * Runtime: O(C * F + N) with C commits of F files, N bytes copied
+     *
+     * @param path    - The .gitlet directory to clone, with / as separator
+     * @param partial - Whether to leave the blobs out
+     * @throws GitletException - When the directory isn't there
+     */
+    static void cloneRemote(String path, boolean partial) throws GitletException {
+        if (!new File(path.replace("/", File.separator)).isDirectory()) {
+            throw new GitletException("Remote directory not found.");
+        }
+        init();
+        addRemote(DEFAULT_REMOTE, path);
+        Remote remote = Remote.open(REMOTES_DIR, DEFAULT_REMOTE);
+        Bundle.Store local = getLocalStore();
+        Map<String, String> heads = new TreeMap<>();
+        try {
+            if (partial) {
+                Utils.writeContents(PROMISOR_FILE, DEFAULT_REMOTE);
+            }
+            for (String branch : remote.refs.list()) {
+                String head = remote.refs.read(branch);
+                Bundle bundle = Bundle.negotiate(remote.store, local, head);
+                if (partial) {
+                    bundle = bundle.withoutBlobs();
+                }
+                bundle.transfer(remote.store, local);
+                bundle.record(local, branch);
+                heads.put(branch, head);
+            }
+            // Checked out while HEAD is still the initial commit,
+            // so files in the way count as untracked
+            String current = remote.currentBranch();
+            restoreAllFiles(readCommitObject(heads.get(current)).getAllBlobs());
+            for (Map.Entry<String, String> head : heads.entrySet()) {
+                REFS.write(head.getKey(), head.getValue());
+            }
+            updateRootHead(current, DEFAULT_BRANCH);
+        } catch (IOException e) {
+            ErrorHandler.handleJavaException(e);
+        }
+    }
+
+    /**
+     * In a partial clone, fetch the objects among SHA1S that aren't here yet,
+     * all in one bundle from the remote that promised them.
+     * Does nothing in a full repository.
+     * Runtime: O(N) with N objects asked for, plus the transfer
+     *
+     * @param sha1s - The objects about to be read
+     */
+    static void fetchMissingObjects(Collection<String> sha1s) {
+        if (!PROMISOR_FILE.exists()) {
+            return;
+        }
+        List<String> missing = new ArrayList<>();
+        for (String sha1 : new LinkedHashSet<>(sha1s)) {
+            if (!getObjectFile(sha1).isFile()) {
+                missing.add(sha1);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        Remote remote = Remote.open(REMOTES_DIR, Utils.readContentsAsString(PROMISOR_FILE));
+        try {
+            Bundle.ofObjects(missing).transfer(remote.store, getLocalStore());
+        } catch (IOException e) {
+            ErrorHandler.handleJavaException(e);
+        }
+    }
+
+    private static Bundle.Store getLocalStore() {
+        return new Bundle.Store(OBJECTS_DIR, COMMIT_GRAPH, Repository::readCommitObject,
+                LOGS_REFS_HEADS_DIR);
+    }
+
+    /**
+     * @return true if ANCESTOR is COMMIT or in its history, walking the commit graph
+     */
+    private static boolean isAncestor(String ancestor, String commit) {
+        if (!getObjectFile(ancestor).isFile()) {
+            return false;
+        }
+        Set<String> visited = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.push(commit);
+        while (!pending.isEmpty()) {
+            String sha1 = pending.pop();
+            if (sha1.equals(ancestor)) {
+                return true;
+            }
+            if (visited.add(sha1)) {
+                CommitGraph.Entry entry = COMMIT_GRAPH.get(sha1);
+                for (String parent : Arrays.asList(entry.parentSha1, entry.mergedParentSha1)) {
+                    if (parent != null) {
+                        pending.push(parent);
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check out only the files matching PATTERNS from now on,
+     * and update the working directory to HEAD under them.
+     * No pattern checks out every file again.
+     * Runtime: O(N * P) with N files in HEAD, P patterns
+     *
+     * @param patterns - Globs of the files to check out, see SparseCheckout
+     * @throws GitletException - When a pattern is invalid,
+     *                           or a file to remove has unstaged changes
+     */
+    static void setSparseCheckout(List<String> patterns) throws GitletException {
+        SparseCheckout sparse = SparseCheckout.of(patterns);
+        if (hasUnstagedChanges()) {
+            throw UnstagedChangesException();
+        }
+        SparseCheckout previous = getSparseCheckout();
+        List<Blob> snapshot = snapshotWorkspace();
+        writeSparseCheckout(sparse);
+        try {
+            restoreToCommit(getHeadCommit());
+        } catch (GitletException e) {
+            // Unlike restoreWorkspace(), keeps the stage
+            writeSparseCheckout(previous);
+            for (Blob blob : snapshot) {
+                restoreBlobContent(blob);
+            }
+            throw e;
+        }
+    }
+
+    static void printSparseCheckout() {
+        for (String pattern : getSparseCheckout().getPatterns()) {
+            System.out.println(pattern);
+        }
+    }
+
+    static SparseCheckout getSparseCheckout() {
+        return SparseCheckout.load(SPARSE_FILE);
+    }
+
+    private static void writeSparseCheckout(SparseCheckout sparse) {
+        if (sparse.isFull()) {
+            SPARSE_FILE.delete();
+        } else {
+            sparse.save(SPARSE_FILE);
+        }
+    }
+
+    /**
+     * Set how much this repository syncs to disk, see Durability
+     *
+     * @param name - none, objects or full
+     * @throws GitletException - When NAME is not a level
+     */
+    static void setDurability(String name) throws GitletException {
+        Durability.set(Durability.parse(name));
+    }
+
+    static void printDurability() {
+        System.out.println(Durability.get());
     }
 
     static void switchToBranch(String name) throws GitletException {
@@ -323,8 +828,7 @@ public class Repository {
             throw new GitletException("No need to checkout the current branch.");
         }
 
-        final File BRANCH_FILE = Utils.join(REFS_HEADS_DIR, name);
-        if (!BRANCH_FILE.exists()) {
+        if (!REFS.exists(name)) {
             throw new GitletException("No such branch exists.");
         }
 
@@ -337,7 +841,7 @@ public class Repository {
         try {
             Commit branchHead = getHeadCommit(name);
             restoreToCommit(branchHead);
-            updateRootHead(name);
+            updateRootHead(name, currentBranch);
             updateStageFileTo(name);
         } catch (IOException e) {
             ErrorHandler.handleJavaException(e);
@@ -348,6 +852,10 @@ public class Repository {
     }
 
     static void reset(String commitID) throws GitletException {
+        // The head the checks below are made against,
+        // so the ref isn't moved if another process moved it meanwhile
+        final String branch = getCurrentBranch();
+        final String headSha1 = readCommitRef(branch);
         // Throws "no commit exist" if not found
         Commit commit = getCommit(commitID);
         if (hasUnstagedChanges()) {
@@ -359,7 +867,7 @@ public class Repository {
         }
         List<Blob> snapshot = snapshotWorkspace();
         try{
-            writeCommitRef(getCurrentBranch(), commit);
+            writeCommitRef(branch, headSha1, commit);
             // For log, simply don't update them
             restoreToCommit(commit);
             clearStageFile();
@@ -397,8 +905,7 @@ public class Repository {
             throw new GitletException("Cannot merge a branch with itself.");
         }
 
-        final File BRANCH_FILE = Utils.join(REFS_HEADS_DIR, target);
-        if (!BRANCH_FILE.exists()) {
+        if (!REFS.exists(target)) {
             throw new GitletException("A branch with that name does not exist.");
         }
 
@@ -414,7 +921,7 @@ public class Repository {
         if (commonAncestor.equals(headCommit)) {
             try {
                 restoreToCommit(targetCommit);
-                writeCommitRef(currentBranch, targetCommit);
+                writeCommitRef(currentBranch, headCommit.getSha1(), targetCommit);
                 System.out.println("Current branch fast-forwarded.");
                 return;
             } catch (IOException e) {
@@ -433,6 +940,15 @@ public class Repository {
         HashSet<String> checkedFiles = new HashSet<>();
 
         HashSet<String> cwdFiles = getCWDFiles();
+        // Files outside of a sparse checkout are staged without being written
+        SparseCheckout sparse = getSparseCheckout();
+
+        // In a partial clone, fetch every blob the merge reads in one go
+        fetchMissingObjects(getMergeReads(splitBlobs, thisBlobs, targetBlobs));
+
+        // Split point filename -> filename it was renamed to on each side
+        Map<String, String> theirRenames = getRenameMap(splitBlobs, targetBlobs);
+        Map<String, String> ourRenames = getRenameMap(splitBlobs, thisBlobs);
 
         List<Blob> snapshot = snapshotWorkspace();
 
@@ -443,7 +959,13 @@ public class Repository {
                 String splitFilename = entry.getKey();
 
                 checkedFiles.add(splitFilename);
-                Blob splitBlob = readBlobObject(entry.getValue());
+                // Only compared by sha1, its content isn't needed
+                Blob splitBlob = Blob.stored(splitFilename, splitBlobSha1);
+
+                if (mergeRenamed(splitFilename, splitBlobSha1, thisBlobs, targetBlobs,
+                        theirRenames, ourRenames, staged, cwdFiles, checkedFiles, sparse)) {
+                    continue;
+                }
 
                 String targetBlobSha1 = targetBlobs.get(splitFilename);
                 String thisBlobSha1 = thisBlobs.get(splitFilename);
@@ -457,7 +979,9 @@ public class Repository {
                         Blob targetBlob = readBlobObject(targetBlobSha1);
                         testUnstaged(splitFilename, splitBlob, cwdFiles);
                         // files should be checkouted and staged
-                        restoreBlobContent(targetBlob);
+                        if (sparse.includes(splitFilename)) {
+                            restoreBlobContent(targetBlob);
+                        }
                         staged.addToStage(targetBlob);
                     }
                     case 2, 3, 7 -> {
@@ -485,8 +1009,10 @@ public class Repository {
                         testUnstaged(splitFilename, thisBlob, cwdFiles);
                         // Write the diff file
                         // TODO: Improve this
-                        File tmp = markDiff(splitFilename, thisBlobSha1, targetBlobSha1);
-                        Utils.writeContents(tmp, (Object) thisBlob.getData());
+                        if (sparse.includes(splitFilename)) {
+                            File tmp = markDiff(splitFilename, thisBlobSha1, targetBlobSha1);
+                            Utils.writeContents(tmp, (Object) thisBlob.getData());
+                        }
                     }
                 }
             }
@@ -503,7 +1029,9 @@ public class Repository {
                     Blob targetBlob = readBlobObject(targetBlobSha1);
                     // files should be checkouted and staged
                     testUnstaged(targetFilename, targetBlob, cwdFiles);
-                    restoreBlobContent(targetBlob);
+                    if (sparse.includes(targetFilename)) {
+                        restoreBlobContent(targetBlob);
+                    }
                     staged.addToStage(targetBlob);
                 }
             }
@@ -534,6 +1062,149 @@ public class Repository {
         }
     }
 
+    /**
+     * The blobs a merge reads the content of: the inputs of rename
+     * detection on each side, the files taken from the given branch
+     * (cases 1 and 5) and both sides of a conflict (case 8).
+     * The blobs of a rename carried across (see mergeRenamed) are among
+     * the rename detection inputs and the sides of a conflict.
+     * Runtime: O(N) with N files in the three commits
+     *
+     * @return Sha1 of the blobs
+     */
+    private static Set<String> getMergeReads(
+            Map<String, String> splitBlobs, Map<String, String> thisBlobs,
+            Map<String, String> targetBlobs
+    ) {
+        Set<String> reads = new LinkedHashSet<>();
+        for (Map<String, String> side : List.of(thisBlobs, targetBlobs)) {
+            Set<String> added = new HashSet<>(side.keySet());
+            added.removeAll(splitBlobs.keySet());
+            Set<String> deleted = new HashSet<>(splitBlobs.keySet());
+            deleted.removeAll(side.keySet());
+            // See detectRenames
+            if (!added.isEmpty() && !deleted.isEmpty()) {
+                for (String filename : added) {
+                    reads.add(side.get(filename));
+                }
+                for (String filename : deleted) {
+                    reads.add(splitBlobs.get(filename));
+                }
+            }
+        }
+        for (Map.Entry<String, String> entry : splitBlobs.entrySet()) {
+            String targetSha1 = targetBlobs.get(entry.getKey());
+            String thisSha1 = thisBlobs.get(entry.getKey());
+            switch (getMergeStatus(entry.getValue(), targetSha1, thisSha1)) {
+                case 1 -> reads.add(targetSha1);
+                case 8 -> {
+                    if (thisSha1 != null) {
+                        reads.add(thisSha1);
+                    }
+                    if (targetSha1 != null) {
+                        reads.add(targetSha1);
+                    }
+                }
+                default -> { }
+            }
+        }
+        for (Map.Entry<String, String> entry : targetBlobs.entrySet()) {
+            if (!splitBlobs.containsKey(entry.getKey()) && !thisBlobs.containsKey(entry.getKey())) {
+                reads.add(entry.getValue());
+            }
+        }
+        return reads;
+    }
+
+    /**
+     * Map each renamed file of FROMBLOBS to its new name in TOBLOBS
+     * @param fromBlobs - filename-blobsha1 pairs of the split point
+     * @param toBlobs   - filename-blobsha1 pairs of one side of the merge
+     * @return old filename - new filename
+     */
+    private static Map<String, String> getRenameMap(
+            Map<String, String> fromBlobs, Map<String, String> toBlobs
+    ) {
+        Map<String, String> renames = new HashMap<>();
+        for (RenameDetector.Pair pair : detectRenames(fromBlobs, toBlobs, false, Map.of())) {
+            renames.put(pair.source, pair.target);
+        }
+        return renames;
+    }
+
+    /**
+     * Carry a change across a rename done on the other side of the merge.
+     * Without it the rename is seen as a delete plus an add,
+     * and the change to the old name ends up as a conflict.
+     * Two cases are handled:
+     * 1. renamed unmodified in the given branch, modified in the current branch:
+     *    our content moves to the new name
+     * 2. renamed unmodified in the current branch, modified in the given branch:
+     *    their content goes to our new name
+     * The merged blob is staged from the object store, and only files in the
+     * sparse checkout are written to or deleted from the working directory.
+     * @param splitFilename - The file at the split point
+     * @param splitSha1     - Sha1 of the blob at the split point
+     * @param sparse        - The files to check out
+     * @return true if the file has been merged, false to go on as usual
+     */
+    private static boolean mergeRenamed(
+            String splitFilename, String splitSha1,
+            Map<String, String> thisBlobs, Map<String, String> targetBlobs,
+            Map<String, String> theirRenames, Map<String, String> ourRenames,
+            Commit staged, HashSet<String> cwdFiles, HashSet<String> checkedFiles,
+            SparseCheckout sparse
+    ) throws GitletException {
+        String thisSha1 = thisBlobs.get(splitFilename);
+        String targetSha1 = targetBlobs.get(splitFilename);
+        String theirName = theirRenames.get(splitFilename);
+        String ourName = ourRenames.get(splitFilename);
+        if (theirName != null && thisSha1 != null && !thisSha1.equals(splitSha1)
+                && !thisBlobs.containsKey(theirName)
+                && sameContent(splitSha1, targetBlobs.get(theirName))) {
+            Blob thisBlob = readBlobObject(thisSha1);
+            testUnstaged(splitFilename, thisBlob, cwdFiles);
+            testUnstaged(theirName, readBlobObject(targetBlobs.get(theirName)), cwdFiles);
+            Blob merged = Blob.of(theirName, thisBlob.getData());
+            if (sparse.includes(theirName)) {
+                restoreBlobContent(merged);
+            }
+            staged.addToStage(merged);
+            staged.removeFromCommit(splitFilename);
+            if (sparse.includes(splitFilename)) {
+                new File(splitFilename).delete();
+            }
+            checkedFiles.add(theirName);
+            return true;
+        }
+        if (ourName != null && targetSha1 != null && !targetSha1.equals(splitSha1)
+                && !targetBlobs.containsKey(ourName)
+                && sameContent(splitSha1, thisBlobs.get(ourName))) {
+            Blob targetBlob = readBlobObject(targetSha1);
+            testUnstaged(ourName, readBlobObject(thisBlobs.get(ourName)), cwdFiles);
+            Blob merged = Blob.of(ourName, targetBlob.getData());
+            if (sparse.includes(ourName)) {
+                restoreBlobContent(merged);
+            }
+            staged.addToStage(merged);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Check whether two blobs hold the same bytes, whatever their filenames
+     */
+    private static boolean sameContent(String blobSha1, String otherSha1) {
+        if (blobSha1 == null || otherSha1 == null) {
+            return false;
+        }
+        return Arrays.equals(
+                readBlobObject(blobSha1).getData(),
+                readBlobObject(otherSha1).getData()
+        );
+    }
+
     /**
      * Commit the merge
      * @param staged The staged commit
@@ -547,11 +1218,7 @@ public class Repository {
         }
         try {
             Commit newCommit = Commit.finishCommit(staged, branch, message, new Date(), targetCommit);
-            for (Blob b : staged.getAddedBlobs()) {
-                try {
-                    writeBlobObject(b);
-                } catch (GitletException e) {}
-            }
+            writeBlobObjects(staged.getAddedBlobs());
             writeCommitFiles(newCommit);
             clearStageFile();
         } catch (IOException e) {
@@ -698,7 +1365,7 @@ public class Repository {
      */
     static void restoreRefHead(String branch, Commit commit) {
         try {
-            writeCommitRef(branch, commit);
+            REFS.write(branch, commit.getSha1());
         } catch (IOException e) {
 //            restoreRefHead(branch, commit);
             ErrorHandler.handleJavaException(e);
@@ -711,7 +1378,8 @@ public class Repository {
      */
     private static List<Blob> snapshotWorkspace() {
         List<Blob> snapshot = new ArrayList<>();
-        HashSet<String> files = getCWDFiles();
+        // Restoring a commit never writes over ignored files, no need to save them
+        List<String> files = getWorkspaceFiles(getStagedCommit());
         try {
             for (String file: files) {
                 Blob blob = new Blob(file);
@@ -764,6 +1432,20 @@ public class Repository {
      * @return The latest common ancestor
      */
     public static Commit getCommonAncestor(String our, String their) {
+        GitletEvents.MergeBase event = new GitletEvents.MergeBase();
+        event.begin();
+        Commit base = findCommonAncestor(our, their);
+        event.end();
+        if (event.shouldCommit()) {
+            event.ours = our;
+            event.theirs = their;
+            event.base = base.getSha1();
+            event.commit();
+        }
+        return base;
+    }
+
+    private static Commit findCommonAncestor(String our, String their) {
         Queue<Commit> nodeQueue = new ArrayDeque<>();
         HashSet<Commit> ourVisited = new HashSet<>();
         HashSet<Commit> theirAncestors = getAllAncestors(their);
@@ -834,13 +1516,158 @@ public class Repository {
         return visited;
     }
 
-    static void printStatus() {
+    /**
+     * @param renames - Whether to print the staged renames, see printStagedRenames()
+     */
+    static void printStatus(boolean renames) {
         printBranches();
         Commit staged = getStagedCommit();
         staged.printStageStatus();
+        if (renames) {
+            printStagedRenames(staged);
+        }
         printUnstagedChanges();
     }
 
+    /**
+     * Print the staged removes and adds that are really renames, for
+     * `gitlet status --renames`. The section only shows up when there is one.
+     * Runtime: O(N) with N removed and added files
+     * @param staged The staged commit
+     */
+    private static void printStagedRenames(Commit staged) {
+        Set<String> removed = staged.getRemovedFiles();
+        if (removed.isEmpty()) {
+            return;
+        }
+        RenameDetector detector = new RenameDetector();
+        for (String filename : removed) {
+            detector.addSource(filename, readBlobObject(staged.getBlobSha1(filename)).getData());
+        }
+        for (Blob blob : staged.getAddedBlobs()) {
+            if (!staged.isInBlobs(blob.getFilename())) {
+                detector.addTarget(blob.getFilename(), blob.getData());
+            }
+        }
+        List<RenameDetector.Pair> renames = detector.detect();
+        if (renames.isEmpty()) {
+            return;
+        }
+        System.out.println("=== Renamed Files ===");
+        for (RenameDetector.Pair pair : renames) {
+            System.out.println(pair);
+        }
+        System.out.println();
+    }
+
+    /**
+     * Print the files changed between two commits, one per line:
+     * A (added), D (deleted), M (modified), R (renamed) or C (copied),
+     * renames and copies followed by their similarity percentage.
+     * Runtime: O(N) with N files in both commits,
+     *          only the blobs of changed files are read
+     * @param fromID - ID of the old commit, null for the head commit
+     * @param toID   - ID of the new commit, null for the stage
+     * @throws GitletException - When a commit doesn't exist
+     */
+    static void diff(String fromID, String toID) throws GitletException {
+        Commit from = fromID == null ? getHeadCommit() : getCommit(fromID);
+        Map<String, String> fromBlobs = from.getAllBlobs();
+        Map<String, String> toBlobs;
+        // Staged blobs are only written on commit
+        Map<String, Blob> unwritten = new HashMap<>();
+        if (toID != null) {
+            toBlobs = getCommit(toID).getAllBlobs();
+        } else {
+            Commit staged = getStagedCommit();
+            toBlobs = new HashMap<>(staged.getAllBlobs());
+            for (String filename : staged.getRemovedFiles()) {
+                toBlobs.remove(filename);
+            }
+            for (Blob blob : staged.getAddedBlobs()) {
+                toBlobs.put(blob.getFilename(), blob.getSha1());
+                unwritten.put(blob.getSha1(), blob);
+            }
+        }
+
+        TreeMap<String, String> lines = new TreeMap<>();
+        for (Map.Entry<String, String> entry : fromBlobs.entrySet()) {
+            String toSha1 = toBlobs.get(entry.getKey());
+            if (toSha1 == null) {
+                lines.put(entry.getKey(), "D\t" + entry.getKey());
+            } else if (!toSha1.equals(entry.getValue())) {
+                lines.put(entry.getKey(), "M\t" + entry.getKey());
+            }
+        }
+        for (String filename : toBlobs.keySet()) {
+            if (!fromBlobs.containsKey(filename)) {
+                lines.put(filename, "A\t" + filename);
+            }
+        }
+        for (RenameDetector.Pair pair : detectRenames(fromBlobs, toBlobs, true, unwritten)) {
+            if (!pair.copy) {
+                lines.remove(pair.source);
+            }
+            lines.put(pair.target, String.format("%s%03d\t%s\t%s",
+                    pair.copy ? "C" : "R", pair.score, pair.source, pair.target));
+        }
+        for (String line : lines.values()) {
+            System.out.println(line);
+        }
+    }
+
+    /**
+     * Find the files renamed (and optionally copied) from one manifest to another.
+     * Deleted files are the rename sources, added files the targets,
+     * and modified files are extra sources for copies.
+     * Runtime: O(N) with N files in both manifests,
+     *          reads only the blobs of deleted, added and modified files
+     * @param fromBlobs  - filename-blobsha1 pairs before
+     * @param toBlobs    - filename-blobsha1 pairs after
+     * @param findCopies - whether to look for copies too
+     * @param unwritten  - blobs not in the object store yet, by sha1
+     * @return The renames (and copies) found
+     */
+    static List<RenameDetector.Pair> detectRenames(
+            Map<String, String> fromBlobs, Map<String, String> toBlobs,
+            boolean findCopies, Map<String, Blob> unwritten
+    ) {
+        RenameDetector detector = new RenameDetector();
+        boolean anyDeleted = false;
+        boolean anyAdded = false;
+        for (String filename : toBlobs.keySet()) {
+            if (!fromBlobs.containsKey(filename)) {
+                anyAdded = true;
+                break;
+            }
+        }
+        if (!anyAdded) {
+            return new ArrayList<>();
+        }
+        for (Map.Entry<String, String> entry : fromBlobs.entrySet()) {
+            String toSha1 = toBlobs.get(entry.getKey());
+            if (toSha1 == null) {
+                anyDeleted = true;
+                detector.addSource(entry.getKey(), readBlobObject(entry.getValue()).getData());
+            } else if (findCopies && !toSha1.equals(entry.getValue())) {
+                detector.addCopySource(entry.getKey(), readBlobObject(entry.getValue()).getData());
+            }
+        }
+        if (!anyDeleted && !findCopies) {
+            return new ArrayList<>();
+        }
+        for (Map.Entry<String, String> entry : toBlobs.entrySet()) {
+            if (!fromBlobs.containsKey(entry.getKey())) {
+                Blob blob = unwritten.get(entry.getValue());
+                if (blob == null) {
+                    blob = readBlobObject(entry.getValue());
+                }
+                detector.addTarget(entry.getKey(), blob.getData());
+            }
+        }
+        return detector.detect();
+    }
+
     static private void printUnstagedChanges() {
         SortedMap<String, UnstagedStatus> unstaged = getUnstagedFiles();
         List<String> newFiles = new ArrayList<>();
@@ -878,18 +1705,15 @@ public class Repository {
 
     /**
      * Get a list of all branches in the current gitlet directory
-     * The branches are the filenames in the directory: refs/heads/*
+     * The branches are the lines of packed-refs and the files refs/heads/*
      * <p>
-     * Runtime: O(N) with N branches (N files in directory)
+     * Runtime: O(N + L log L) with N packed and L loose branches
      *
-     * @return A list of all branches
+     * @return A sorted list of all branches
      * @throws GitletException - When the refs/heads/ doesn't exist
      */
     private static List<String> getBranches() throws GitletException {
-        if (!REFS_HEADS_DIR.exists()) {
-            throw new GitletException("Broken Gitlet Repository!");
-        }
-        return Utils.plainFilenamesIn(REFS_HEADS_DIR);
+        return REFS.list();
     }
 
     /**
@@ -905,9 +1729,17 @@ public class Repository {
         if (!ROOT_HEAD_FILE.exists()) {
             throw new GitletException("Broken gitlet repository: .gitlet/HEAD not found!");
         }
-        final String rootContent = Utils.readContentsAsString(ROOT_HEAD_FILE);
+        final String rootContent;
+        try (Trace.Span span = Trace.phase(Trace.Phase.REFS)) {
+            rootContent = Utils.readContentsAsString(ROOT_HEAD_FILE);
+        }
         // final String[] tokens = rootContent.split("/");
         // assert tokens.length == 3;
+        // Remote-tracking branches have a slash of their own, remote/branch
+        final String REFS_HEADS_PATH_STRING = "refs/heads/";
+        if (rootContent.startsWith(REFS_HEADS_PATH_STRING)) {
+            return rootContent.substring(REFS_HEADS_PATH_STRING.length());
+        }
         return rootContent.substring(rootContent.lastIndexOf("/") + 1);
     }
 
@@ -956,10 +1788,7 @@ public class Repository {
      * @return The commit object described above
      */
     public static Commit getHeadCommit() {
-        // FIXME: This calling chain seems redundent.
-        File commitRefFile = readRootHead();
-        File commitObjectFile = readCommitRef(commitRefFile);
-        return readCommitObject(commitObjectFile);
+        return readCommitObject(readCommitRef(getCurrentBranch()));
     }
 
     /**
@@ -970,18 +1799,16 @@ public class Repository {
      * @throws GitletException - When branch doesn't exist
      */
     public static Commit getHeadCommit(String branch) throws GitletException {
-        final File BRANCH_FILE = Utils.join(REFS_HEADS_DIR, branch);
-        if (!BRANCH_FILE.exists()) {
+        String sha1 = REFS.read(branch);
+        if (sha1 == null) {
             throw new GitletException("No such branch exists.");
         }
-        File commitRefFile = Utils.join(REFS_HEADS_DIR, branch);
-        File commitObjectFile = readCommitRef(commitRefFile);
-        return readCommitObject(commitObjectFile);
+        return readCommitObject(sha1);
     }
 
     /**
-     * Get the staged commit from stage file.
-     * Runtime: O(N) with stage file of size N
+     * Get the staged commit from stage file, with the stage journal replayed on it.
+     * Runtime: O(N) with stage file and journal of size N
      * @return The staged commit
      */
     public static Commit getStagedCommit() {
@@ -990,8 +1817,11 @@ public class Repository {
             Commit head = getHeadCommit();
             staged = Commit.createStagedCommit(head);
         } else {
-            staged = readCommitObject(STAGE_FILE);
+            try (Trace.Span span = Trace.phase(Trace.Phase.STAGE_READ)) {
+                staged = readCommitObject(STAGE_FILE);
+            }
         }
+        STAGE_JOURNAL.replay(staged);
         return staged;
     }
 
@@ -1043,9 +1873,12 @@ public class Repository {
      */
     private static void writeCommitFiles(Commit commit) {
         try {
-            writeCommitLog(commit);
-            writeCommitRef(commit);
+            // The object goes first, and the ref syncs it before moving (see
+            // LockFile): a ref must never point to a missing commit
             writeCommitObject(commit);
+            writeCommitRef(commit);
+            writeCommitLog(commit);
+            COMMIT_GRAPH.add(commit);
         } catch (IOException e) {
             ErrorHandler.handleJavaException(e);
         } catch (GitletException e) {
@@ -1065,27 +1898,36 @@ public class Repository {
         return initCommit;
     }
 
-    private static void writeStageFile(Commit stage) {
+    /**
+     * Write the whole stage, folding the stage journal into it.
+     * Added blobs are stored as objects, the stage only keeps their sha1.
+     * Runtime: O(N) with N files in the stage
+     */
+    static void writeStageFile(Commit stage) {
         assert stage != null && stage.isStaged();
 
-        try {
-            if (!STAGE_FILE.exists()) {
-                STAGE_FILE.createNewFile();
-            }
-            Utils.writeObject(STAGE_FILE, stage);
+        try (Trace.Span span = Trace.phase(Trace.Phase.STAGE_WRITE)) {
+            writeBlobObjects(stage.getAddedBlobs());
+            stage.unloadAddedBlobs();
+            // Readers don't lock the stage, so never let them see it half written
+            LockManager.replace(STAGE_FILE, Utils.serialize(stage));
+            // Replaying the journal again would be harmless if we crash here
+            STAGE_JOURNAL.clear();
         } catch (IOException e) {
             ErrorHandler.handleJavaException(e);
         }
     }
 
     static void clearStageFile() {
+        // The journal first, so it's never replayed on a fresh stage
+        STAGE_JOURNAL.clear();
         STAGE_FILE.delete();
     }
 
     private static void updateStageFileTo(String branch) {
         Commit stage = getStagedCommit();
         Commit headCommit = getHeadCommit(branch);
-        stage.updateBlobs(headCommit.getAllBlobs());
+        stage.updateHead(headCommit);
         writeStageFile(stage);
     }
 
@@ -1099,82 +1941,71 @@ public class Repository {
      * <p>
      * NOTE: Currently it's hard coded to write refs/heads/BRANCH.
      * If we want to support detach or remotes, we should improve this.
+     * <p>
+     * The file is replaced atomically through HEAD.lock.
      *
-     * @param branch - the branch to write in
+     * @param branch   - the branch to write in
+     * @param expected - the branch HEAD must be on now, null to skip the check
      * @throws IOException - When IO system fails
+     * @throws GitletException - When HEAD was moved by another process
      */
-    private static void updateRootHead(String branch) throws IOException {
+    private static void updateRootHead(String branch, String expected) throws IOException {
         final String REFS_HEADS_PATH_STRING = "refs/heads/";
-        ROOT_HEAD_FILE.delete();
-        ROOT_HEAD_FILE.createNewFile();
-        writeContents(ROOT_HEAD_FILE, REFS_HEADS_PATH_STRING + branch);
-    }
-
-    /**
-     * Read the root HEAD
-     *
-     * @return the ref file pointed by the HEAD's content
-     */
-    private static File readRootHead() throws GitletException { // throws IOException {
-        if (!ROOT_HEAD_FILE.exists()) {
-            throw new GitletException("Broken gitlet repository: .gitlet/HEAD not found!");
+        try (LockFile lock = LockFile.acquire(ROOT_HEAD_FILE)) {
+            if (expected != null && !expected.equals(getCurrentBranch())) {
+                throw new GitletException("HEAD was moved by another gitlet process; try again.");
+            }
+            lock.write(REFS_HEADS_PATH_STRING + branch);
+            lock.commit();
         }
-        final String rootContent = Utils.readContentsAsString(ROOT_HEAD_FILE);
-        File refFile = Utils.join(GITLET_DIR, rootContent);
-        return refFile;
     }
 
     /**
      * Write to .gitlet/refs/heads/COMMIT.BRANCH
      * <p>
-     * Creates a new file whenever it is invoked.
+     * The branch must still point to the parent of the commit,
+     * i.e. nobody else committed since the commit was staged.
      * Contians sha1 of the commit.
      *
      * @param commit the commit to write in
      * @throws IOException - When IO system fails
+     * @throws GitletException - When the branch was moved by another process
      */
     private static void writeCommitRef(Commit commit) throws IOException {
-        writeCommitRef(commit.getBranch(), commit);
+        writeCommitRef(commit.getBranch(), commit.getParentSha1(), commit);
     }
 
     /**
      * Write to .gitlet/refs/heads/BRANCH
-     * @param branch - Branch to write to
-     * @param commit - Commit to write
+     * @param branch   - Branch to write to
+     * @param expected - Sha1 the branch must point to now
+     * @param commit   - Commit to write
      * @throws IOException - When IO system fails
+     * @throws GitletException - When the branch was moved by another process
      */
-    private static void writeCommitRef(String branch, Commit commit) throws IOException {
-        File refFile = Utils.join(REFS_HEADS_DIR, branch);
-        refFile.delete();
-        refFile.createNewFile();
-        Utils.writeContents(refFile, commit.getSha1());
+    private static void writeCommitRef(String branch, String expected, Commit commit) throws IOException {
+        REFS.update(branch, expected, commit.getSha1());
     }
 
     /**
-     * Read the commit ref
+     * Read the commit ref of a branch, loose or packed
+     * Runtime: O(log N) with N packed branches
      *
-     * @param commitRefFile - the File returned by readRootHead(), assume exists
-     * @return Object file of the commit.
-     *  TODO: Better name?
+     * @param branch - The branch, assume exists
+     * @return sha1 of the commit.
      *  NOTE: Whether return is valid should be checked by the caller.
      */
-    private static File readCommitRef(File commitRefFile) throws GitletException {
-        if (!commitRefFile.exists()) {
+    private static String readCommitRef(String branch) throws GitletException {
+        String sha1 = REFS.read(branch);
+        if (sha1 == null) {
             throw new GitletException("Broken gitlet directory!");
         }
-        String sha1 = Utils.readContentsAsString(commitRefFile);
-        File commitObjectFile = Utils.join(OBJECTS_DIR, sha1.substring(0, 2), sha1.substring(2));
-        return commitObjectFile;
+        return sha1;
     }
 
-    private static Commit readCommitObject(String commitSha1) throws GitletException {
+    static Commit readCommitObject(String commitSha1) throws GitletException {
         final String errorMsg = "Object file refered by commit ref doesn't exist!";
-        File commitObjectFile = Utils.join(
-                OBJECTS_DIR,
-                commitSha1.substring(0, 2),
-                commitSha1.substring(2)
-        );
-        return readGitletObject(commitObjectFile, Commit.class, errorMsg);
+        return readCachedObject(commitSha1, Commit.class, errorMsg);
     }
 
     // WARN: The map is not necessarily right, considering it stores addresses.
@@ -1185,12 +2016,41 @@ public class Repository {
 
     public static Blob readBlobObject(String blobSha1) throws GitletException {
         final String errorMsg = "Object file referred by blob ref doesn't exist!";
-        File blobObjectFile = Utils.join(
-                OBJECTS_DIR,
-                blobSha1.substring(0, 2),
-                blobSha1.substring(2)
-        );
-        return readGitletObject(blobObjectFile, Blob.class, errorMsg);
+        return readCachedObject(blobSha1, Blob.class, errorMsg);
+    }
+
+    /**
+     * Read an object by its sha1 through OBJECT_CACHE
+     * Runtime: O(1) if cached, O(N) with object of size N otherwise
+     * @param sha1     - The id of the object
+     * @param type     - The type of GitletObject (Commit or Blob)
+     * @param errorMsg - The error message to display on not found
+     * @param <T>      The type of GitletObject (Commit or Blob)
+     * @return The Gitlet Object according to Type T
+     * @throws GitletException - When object file doesn't exists
+     */
+    private static <T extends Serializable> T readCachedObject(
+            String sha1, Class<T> type, String errorMsg
+    ) throws GitletException {
+        T object = OBJECT_CACHE.get(sha1, type);
+        if (object != null) {
+            Trace.count(Trace.Counter.OBJECT_CACHE_HITS, 1);
+            return object;
+        }
+        File objectFile = getObjectFile(sha1);
+        if (!objectFile.exists()) {
+            fetchMissingObjects(List.of(sha1));
+        }
+        try (Trace.Span span = Trace.phase(Trace.Phase.OBJECT_READ)) {
+            object = readGitletObject(objectFile, type, errorMsg);
+        }
+        Trace.count(Trace.Counter.OBJECTS_READ, 1);
+        // A blob weighs its content, anything else its encoded size
+        long size = object instanceof Blob
+                ? ((Blob) object).getData().length
+                : objectFile.length();
+        OBJECT_CACHE.put(sha1, object, size);
+        return object;
     }
 
     private static Blob readBlobObject(File blobObjectFile) throws GitletException {
@@ -1214,14 +2074,32 @@ public class Repository {
         if (!objectFile.exists()) {
             throw new GitletException(errorMsg);
         }
+        GitletEvents.ObjectRead event = new GitletEvents.ObjectRead();
+        event.begin();
         try {
-            T object = Utils.readObject(objectFile, type);
+            T object = null;
+            if (type == Blob.class) {
+                object = type.cast(Blob.readRaw(objectFile));
+            }
+            if (object == null) {
+                object = Utils.readObject(objectFile, type);
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.objectId = objectFile.getParentFile().getName() + objectFile.getName();
+                event.type = type.getSimpleName();
+                event.size = objectFile.length();
+                event.commit();
+            }
             return object;
         } catch (IllegalArgumentException e) {
             ErrorHandler.handleJavaException(e);
             throw new AssertionError("not reached");
         } catch (ClassCastException e) {
             throw new GitletException(errorMsg);
+        } catch (IOException e) {
+            ErrorHandler.handleJavaException(e);
+            throw new AssertionError("not reached");
         }
     }
 
@@ -1265,14 +2143,58 @@ public class Repository {
     /**
      * Restore a file to the content of a blob,
      * creates a new file if non-existent
+     * <p>
+     * The content goes straight from the object file, or the chunk files of
+     * a chunked blob, to the working file with FileChannel.transferTo,
+     * without decoding the blob.
      * Runtime: O(N) with blob of size N
      *          O(1) with other factors
      * @param blobSha1 - The sha1 of the blob to restore to
      * @throws GitletException - When there is no blob of that sha1
      */
     public static void restoreBlobContent(String blobSha1) throws GitletException {
-        Blob blob = readBlobObject(blobSha1);
-        restoreBlobContent(blob);
+        File objectFile = getObjectFile(blobSha1);
+        if (!objectFile.exists()) {
+            fetchMissingObjects(List.of(blobSha1));
+        }
+        if (!objectFile.exists()) {
+            throw new GitletException("Object file referred by blob ref doesn't exist!");
+        }
+        try (Trace.Span span = Trace.phase(Trace.Phase.WORKTREE_WRITE);
+             FileChannel source = FileChannel.open(objectFile.toPath(), StandardOpenOption.READ)) {
+            Blob.Header header = Blob.readHeader(source);
+            if (header == null) {
+                // Stored serialized by an older version
+                restoreBlobContent(readBlobObject(blobSha1));
+                return;
+            }
+            Trace.count(Trace.Counter.FILES_WRITTEN, 1);
+            GitletEvents.Checkout event = new GitletEvents.Checkout();
+            event.begin();
+            // The kernel copies the bytes, they never enter the heap
+            try (FileChannel target = FileChannel.open(Paths.get(header.filename),
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                if (header.chunks != null) {
+                    CHUNKS.transfer(header.chunks, target);
+                } else {
+                    long position = header.contentOffset;
+                    long end = position + header.contentLength;
+                    while (position < end) {
+                        position += source.transferTo(position, end - position, target);
+                    }
+                }
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.objectId = blobSha1;
+                event.filename = header.filename;
+                event.size = header.contentLength;
+                event.commit();
+            }
+        } catch (IOException e) {
+            ErrorHandler.handleJavaException(e);
+        }
     }
 
     /**
@@ -1284,19 +2206,30 @@ public class Repository {
     private static void restoreBlobContent(Blob blob) {
         File blobFile = blob.getFile();
         byte[] data = blob.getData();
-        try {
+        Trace.count(Trace.Counter.FILES_WRITTEN, 1);
+        GitletEvents.Checkout event = new GitletEvents.Checkout();
+        event.begin();
+        try (Trace.Span span = Trace.phase(Trace.Phase.WORKTREE_WRITE)) {
             if (!blobFile.exists()) {
                 blobFile.createNewFile();
             }
             // Overwriting
             Utils.writeContents(blobFile, (Object) data);
+            event.end();
+            if (event.shouldCommit()) {
+                event.objectId = blob.getSha1();
+                event.filename = blob.getFilename();
+                event.size = data.length;
+                event.commit();
+            }
         } catch (IOException e) {
             ErrorHandler.handleJavaException(e);
         }
     }
 
     /**
-     * Restore all files to the according blobs
+     * Restore all files to the according blobs,
+     * only those in the sparse checkout if there's one
      * Runtime: O(N) with N files in CWD, require O(1) HashMap
      *
      * @param blobs - The Map of filename-blob to restore to
@@ -1304,8 +2237,11 @@ public class Repository {
      * This exception should be caught and handled
      */
     private static void restoreAllFiles(Map<String, String> blobs) throws GitletException {
+        blobs = getSparseCheckout().filter(blobs);
         HashSet<String> files = getCWDFiles();
         Commit headCommit = getHeadCommit();
+        // One batch for a partial clone, rather than a fetch per file
+        fetchMissingObjects(blobs.values());
         try {
             // Filter the FS and replace changed files with the ones in blobs
             for (String filename : files) {
@@ -1361,6 +2297,7 @@ public class Repository {
         List<String> files = Utils.plainFilenamesIn(CWD);
         HashSet<String> set;
         if (files != null) {
+            Trace.count(Trace.Counter.FILES_STATED, files.size());
             set = new HashSet<>(files);
         } else {
             set = new HashSet<>();
@@ -1368,6 +2305,25 @@ public class Repository {
         return set;
     }
 
+    /**
+     * List the files of CWD, without the untracked ones .gitletignore matches.
+     * Ignored names are skipped before being stat'd.
+     * Runtime: O(N) with N names in CWD
+     *
+     * @param staged - The stage, whose files are tracked even if ignored
+     * @return The filenames, sorted
+     */
+    private static List<String> getWorkspaceFiles(Commit staged) {
+        IgnoreMatcher ignore = IgnoreMatcher.load(CWD);
+        List<String> files = Utils.plainFilenamesIn(CWD, filename -> !ignore.ignores(filename)
+                || staged.isInBlobs(filename) || staged.isInAdded(filename));
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        Trace.count(Trace.Counter.FILES_STATED, files.size());
+        return files;
+    }
+
     /**
      * Copy a branch's log to log's HEAD file
      * Same as:
@@ -1399,51 +2355,62 @@ public class Repository {
     private static void writeCommitLog(final Commit commit) throws IOException {
         assert !commit.isStaged();
         String branch = commit.getBranch();
-        final File COMMIT_LOG_FILE = Utils.join(LOGS_REFS_HEADS_DIR, branch);
-
-        // WARN: Consider the case in which it exists, and not exists.
-        if (!COMMIT_LOG_FILE.exists()) {
-            COMMIT_LOG_FILE.createNewFile();
-        }
-        String previousContent = Utils.readContentsAsString(COMMIT_LOG_FILE);
-        Utils.writeContents(
-                COMMIT_LOG_FILE,
-                previousContent,
-                commit.getParent() != null
-                        ? commit.getParent().getSha1()
+        appendCommitLog(Utils.join(LOGS_REFS_HEADS_DIR, branch), commit);
+        updateLogsHead(branch);
+    }
+
+    /**
+     * Append a commit's line to a log file, creating it if needed
+     * Runtime: O(1)
+     *
+     * @param logFile - The log of a branch, in this or another repository
+     * @param commit  - The commit to log
+     * @throws IOException - When IO system fails
+     */
+    static void appendCommitLog(File logFile, Commit commit) throws IOException {
+        String line = String.join(" ",
+                commit.getParentSha1() != null
+                        ? commit.getParentSha1()
                         : "0000000000000000000000000000000000000000",
-                " ",
                 commit.getSha1(),
-                " ",
                 Long.toString(commit.getTimestamp().getTime()),
-                " ",
-                commit.getMessage(), // In git, there'll be an indicator
+                commit.getMessage() // In git, there'll be an indicator
                 // whether it's a branch or commit
-                "\n"
-        );
-        updateLogsHead(branch);
+        ) + "\n";
+        Files.createDirectories(logFile.toPath().getParent());
+        if (!Durability.get().syncsAll()) {
+            Files.writeString(logFile.toPath(), line, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            return;
+        }
+        boolean created = !logFile.exists();
+        Files.writeString(logFile.toPath(), line, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.DSYNC);
+        if (created) {
+            LockManager.forceDirectory(logFile.toPath().getParent());
+        }
     }
 
     /**
      * Serialize a GitletObject instance to an object file,
      * placed in the directory objects/
      * Runtime: O(N) with object of size of N
+     * <p>
+     * Writing an object that already exists is a no-op, even when
+     * another process is writing the same object at the same time.
      *
      * @param object - The serializable gitlet object
      * @throws IOException     - When IO System fails
-     * @throws GitletException - When a hash collision occurred, should never happen
      */
-    private static void writeGitletObject(GitletObject object) throws IOException, GitletException {
-        final File OBJECT_DIR = Utils.join(OBJECTS_DIR, object.getSha1().substring(0, 2));
-        if (!OBJECT_DIR.exists()) {
-            OBJECT_DIR.mkdir();
-        }
-        final File OBJECT_FILE = Utils.join(OBJECT_DIR, object.getSha1().substring(2));
-        if (OBJECT_FILE.exists()) {
-            throw new GitletException("Object exists!");
-        }
-        OBJECT_FILE.createNewFile();
-        Utils.writeObject(OBJECT_FILE, object);
+    private static void writeGitletObject(GitletObject object) throws IOException {
+        LockManager.writeObject(getObjectFile(object.getSha1()), Utils.serialize(object));
+    }
+
+    /**
+     * @return The file of an object, objects/[2 digits]/[38 digits]
+     */
+    static File getObjectFile(String sha1) {
+        return Utils.join(OBJECTS_DIR, sha1.substring(0, 2), sha1.substring(2));
     }
 
     /**
@@ -1452,21 +2419,45 @@ public class Repository {
      *
      * @param commit - The commit object to write to file
      * @throws IOException     - When IO System fails
-     * @throws GitletException - When a hash collision occurred, should never happen
      */
-    private static void writeCommitObject(Commit commit) throws IOException, GitletException {
+    private static void writeCommitObject(Commit commit) throws IOException {
         writeGitletObject(commit);
     }
 
+    /**
+     * Write BLOBS concurrently, then sync them all at once, see ObjectWriter
+     * Runtime: O(N) with N bytes of blobs, over ObjectWriter.THREADS threads
+     *
+     * @throws IOException     - When IO System fails
+     */
+    private static void writeBlobObjects(Collection<Blob> blobs) throws IOException {
+        try (ObjectWriter writer = new ObjectWriter(blobs.size())) {
+            for (Blob blob : blobs) {
+                writer.submit(() -> writeBlobObject(blob));
+            }
+            writer.finish();
+        }
+    }
+
     /**
      * Serialize a blob to an object file
      *
      * @param blob - The blob to be written to file
      * @throws IOException     - When IO System fails
-     * @throws GitletException - When a hash collision occurred, should never happen
      */
-    private static void writeBlobObject(Blob blob) throws IOException, GitletException {
-        writeGitletObject(blob);
+    private static void writeBlobObject(Blob blob) throws IOException {
+        File objectFile = getObjectFile(blob.getSha1());
+        if (objectFile.exists()) {
+            // Don't read a blob known by sha1 just to find it's there
+            return;
+        }
+        byte[] data = blob.getData();
+        if (data.length >= ChunkStore.THRESHOLD) {
+            // Chunks shared with other versions of the file are stored once
+            LockManager.writeObject(objectFile, blob.chunkedObject(CHUNKS.write(data)));
+            return;
+        }
+        LockManager.writeObject(objectFile, blob.rawHeader(), data);
     }
 
     /**
@@ -1486,7 +2477,7 @@ public class Repository {
      */
     public static SortedMap<String, UnstagedStatus> getUnstagedFiles() {
         Commit staged = getStagedCommit();
-        List<String> files = plainFilenamesIn(CWD);
+        List<String> files = getWorkspaceFiles(staged);
         // TODO: Should construct a Set first, then sort it out
 //        try {
 //            for (String filename: files) {
@@ -1503,7 +2494,16 @@ public class Repository {
 //        } catch (IOException e) {
 //            ErrorHandler.handleJavaException(e);
 //        }
-        SortedMap<String, UnstagedStatus> unstaged = staged.getUnstaged(files);
+        GitletEvents.WorktreeScan event = new GitletEvents.WorktreeScan();
+        event.begin();
+        SortedMap<String, UnstagedStatus> unstaged =
+                staged.getUnstaged(files, getSparseCheckout()::includes);
+        event.end();
+        if (event.shouldCommit()) {
+            event.files = files.size();
+            event.changed = unstaged.size();
+            event.commit();
+        }
         return unstaged;
     }
 
@@ -1514,8 +2514,82 @@ public class Repository {
      */
     public static boolean hasUnstagedChanges() {
         Commit staged = getStagedCommit();
-        List<String> files = plainFilenamesIn(CWD);
-        return staged.hasUnstaged(files);
+        List<String> files = getWorkspaceFiles(staged);
+        GitletEvents.WorktreeScan event = new GitletEvents.WorktreeScan();
+        event.begin();
+        boolean changed = staged.hasUnstaged(files, getSparseCheckout()::includes);
+        event.end();
+        if (event.shouldCommit()) {
+            event.files = files.size();
+            event.changed = changed ? -1 : 0;
+            event.commit();
+        }
+        return changed;
+    }
+
+    /**
+     * Watch the CWD, so unstaged files can be found from what changed,
+     * see getUnstagedFiles(WorkspaceMonitor). For long-running processes.
+     *
+     * @return The monitor, to be closed when done
+     * @throws IOException - When the file system can't be watched
+     */
+    static WorkspaceMonitor watchWorkspace() throws IOException {
+        return new WorkspaceMonitor(CWD, GITLET_DIR);
+    }
+
+    /**
+     * Same as getUnstagedFiles(), but only files changed since the last call
+     * are examined, unless the stage or HEAD changed.
+     * Runtime: O(D) with D changed files
+     *
+     * @param monitor - Watches the CWD, see watchWorkspace()
+     * @return - A SortedMap of filename-status pair, read only
+     */
+    public static SortedMap<String, UnstagedStatus> getUnstagedFiles(WorkspaceMonitor monitor) {
+        SparseCheckout sparse = getSparseCheckout();
+        IgnoreMatcher ignore = IgnoreMatcher.load(CWD);
+        return monitor.getUnstaged(
+                getStageKey(),
+                Repository::getStagedCommit,
+                staged -> staged.getUnstaged(getWorkspaceFiles(staged), sparse::includes),
+                (staged, filename) -> {
+                    boolean tracked = staged.isInBlobs(filename) || staged.isInAdded(filename);
+                    if (!tracked && ignore.ignores(filename)) {
+                        return null;
+                    }
+                    return staged.getUnstaged(filename, new File(filename).isFile(), sparse::includes);
+                });
+    }
+
+    /**
+     * Same as hasUnstagedChanges(), through a monitor.
+     * Files count as changed exactly when status shows them.
+     */
+    public static boolean hasUnstagedChanges(WorkspaceMonitor monitor) {
+        return !getUnstagedFiles(monitor).isEmpty();
+    }
+
+    /**
+     * Identify the stage, HEAD and sparse checkout without reading them:
+     * when this changes, the status of any file may have.
+     * Runtime: O(1)
+     */
+    private static String getStageKey() {
+        StringBuilder key = new StringBuilder(readContentsAsString(ROOT_HEAD_FILE));
+        key.append(' ').append(REFS.read(getCurrentBranch()));
+        for (File file : new File[]{STAGE_FILE, STAGE_JOURNAL_FILE, SPARSE_FILE}) {
+            try {
+                BasicFileAttributes attributes =
+                        Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                key.append(' ').append(attributes.fileKey())
+                        .append(':').append(attributes.lastModifiedTime())
+                        .append(':').append(attributes.size());
+            } catch (IOException e) {
+                key.append(" -");
+            }
+        }
+        return key.toString();
     }
 
     enum UnstagedStatus {DELETED, MODIFIED, NEW}
@@ -0,0 +1,128 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The files a sparse checkout writes to the working directory.
+ * <p>
+ * Patterns live in .gitlet/sparse-checkout, one glob per line
+ * (see FileSystems.getPathMatcher), matched against filenames.
+ * A pattern starting with '!' excludes what it matches, and the last
+ * matching pattern wins. Blank lines and lines starting with '#' are
+ * ignored. Without the file, every file is checked out.
+ * <p>
+ * Files left out are still tracked: commits keep them as they are in
+ * HEAD, and status doesn't count them as deleted.
+ *
+ * @author Crvena
+ */
+class SparseCheckout {
+    /**
+     * Checks out every file
+     */
+    static final SparseCheckout FULL = new SparseCheckout(Collections.emptyList());
+
+    private final List<String> patterns;
+    private final List<PathMatcher> matchers = new ArrayList<>();
+    private final boolean[] negated;
+
+    private SparseCheckout(List<String> patterns) {
+        this.patterns = patterns;
+        this.negated = new boolean[patterns.size()];
+        for (int i = 0; i < patterns.size(); i++) {
+            String pattern = patterns.get(i);
+            negated[i] = pattern.startsWith("!");
+            matchers.add(FileSystems.getDefault().getPathMatcher(
+                    "glob:" + (negated[i] ? pattern.substring(1) : pattern)));
+        }
+    }
+
+    /**
+     * @param file - The pattern file, .gitlet/sparse-checkout
+     * @return The patterns in FILE, FULL if there's no such file
+     * @throws GitletException - When a pattern is not a valid glob
+     */
+    static SparseCheckout load(File file) {
+        if (!file.isFile()) {
+            return FULL;
+        }
+        List<String> patterns = new ArrayList<>();
+        for (String line : Utils.readContentsAsString(file).split("\n")) {
+            line = line.strip();
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                patterns.add(line);
+            }
+        }
+        return of(patterns);
+    }
+
+    /**
+     * @throws GitletException - When a pattern is not a valid glob
+     */
+    static SparseCheckout of(List<String> patterns) {
+        try {
+            return new SparseCheckout(patterns);
+        } catch (IllegalArgumentException e) {
+            throw new GitletException("Invalid sparse-checkout pattern: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write the patterns to FILE, one per line
+     */
+    void save(File file) {
+        Utils.writeContents(file, String.join("\n", patterns) + "\n");
+    }
+
+    List<String> getPatterns() {
+        return patterns;
+    }
+
+    boolean isFull() {
+        return patterns.isEmpty();
+    }
+
+    /**
+     * Runtime: O(P) with P patterns
+     *
+     * @return Whether FILENAME is written to the working directory
+     */
+    boolean includes(String filename) {
+        if (isFull()) {
+            return true;
+        }
+        for (int i = matchers.size() - 1; i >= 0; i--) {
+            if (matchers.get(i).matches(Paths.get(filename))) {
+                return !negated[i];
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runtime: O(N * P) with N files, P patterns
+     *
+     * @param blobs - Filenames mapped to blob sha1, as in Commit.getAllBlobs()
+     * @return The files of BLOBS to check out, BLOBS itself when all of them are
+     */
+    Map<String, String> filter(Map<String, String> blobs) {
+        if (isFull()) {
+            return blobs;
+        }
+        Map<String, String> included = new HashMap<>();
+        for (Map.Entry<String, String> entry : blobs.entrySet()) {
+            if (includes(entry.getKey())) {
+                included.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return included;
+    }
+}
@@ -0,0 +1,224 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Changes to the stage since it was last written whole, one record each.
+ * <p>
+ * The stage is the stage file (or a fresh stage on HEAD if there's none)
+ * with the journal replayed on top. add and rm append a single record
+ * instead of rewriting the stage, and the journal is folded back into
+ * the stage file once it holds COMPACT_RECORDS records.
+ * <p>
+ * A record sets the state of one file, whatever it was before, so replaying
+ * a record twice does no harm:
+ * <pre>
+ * payload length (4) | op (1) | filename (UTF) | [blob sha1 (UTF)] | CRC32 of payload (4)
+ * </pre>
+ * where op is 'A' (staged for addition as that blob), 'R' (staged for
+ * removal) or 'C' (not staged). Blobs are in the object store before their
+ * record is written. A torn record at the end, left by a crash, fails its
+ * check and is ignored, then overwritten by the next append.
+ *
+ * @author Crvena
+ */
+class StageJournal {
+    /**
+     * Fold the journal into the stage file once it has this many records
+     */
+    static final int COMPACT_RECORDS = 256;
+
+    private static final byte ADD = 'A';
+    private static final byte REMOVE = 'R';
+    private static final byte CLEAR = 'C';
+
+    private final File file;
+    /* Length of the valid records as of the last replay, -1 if unknown */
+    private long validLength = -1;
+    private int records;
+
+    /**
+     * @param file - The journal, .gitlet/stage-journal
+     */
+    StageJournal(File file) {
+        this.file = file;
+    }
+
+    boolean exists() {
+        return file.exists();
+    }
+
+    /**
+     * The state one record sets for its file
+     */
+    static final class Record {
+        final String filename;
+        /* The sha1 of the blob it's staged as, null if it isn't staged for addition */
+        final String sha1;
+        final boolean removed;
+
+        private Record(String filename, String sha1, boolean removed) {
+            this.filename = filename;
+            this.sha1 = sha1;
+            this.removed = removed;
+        }
+    }
+
+    /**
+     * Apply every valid record to STAGED
+     * Runtime: O(N) with journal of size N
+     *
+     * @param staged - The stage as last written whole
+     */
+    void replay(Commit staged) {
+        for (Record record : readRecords()) {
+            staged.restage(record.filename,
+                    record.sha1 != null ? Blob.stored(record.filename, record.sha1) : null,
+                    record.removed);
+        }
+    }
+
+    /**
+     * The last record of one file, without building the stage,
+     * for add and rm. Like replay(), this positions the next append.
+     * Runtime: O(N) with journal of size N
+     *
+     * @param filename - The file
+     * @return The record, null if the journal doesn't mention FILENAME
+     */
+    Record find(String filename) {
+        List<Record> all = readRecords();
+        for (int i = all.size() - 1; i >= 0; i--) {
+            if (all.get(i).filename.equals(filename)) {
+                return all.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The valid records, in order
+     */
+    private List<Record> readRecords() {
+        validLength = 0;
+        records = 0;
+        List<Record> valid = new ArrayList<>();
+        if (!file.exists()) {
+            return valid;
+        }
+        byte[] journal;
+        try (Trace.Span span = Trace.phase(Trace.Phase.STAGE_READ)) {
+            journal = Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            ErrorHandler.handleJavaException(e);
+            return valid;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(journal);
+        while (buffer.remaining() >= Integer.BYTES) {
+            int length = buffer.getInt();
+            if (length < 0 || buffer.remaining() < length + Integer.BYTES) {
+                break;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(journal, buffer.position(), length);
+            int payload = buffer.position();
+            buffer.position(payload + length);
+            if ((int) crc.getValue() != buffer.getInt()) {
+                break;
+            }
+            valid.add(parse(new ByteArrayInputStream(journal, payload, length)));
+            validLength = buffer.position();
+            records++;
+        }
+        return valid;
+    }
+
+    /**
+     * Record the stage state of one file, once its blob is synced.
+     * The record itself is synced when the durability is FULL.
+     * Runtime: O(1)
+     *
+     * @param filename - The file
+     * @param added    - The blob it's staged as, null if it isn't staged for addition
+     * @param removed  - Whether it's staged for removal
+     * @throws IOException - When IO system fails
+     */
+    void append(String filename, Blob added, boolean removed) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(payload);
+        out.writeByte(added != null ? ADD : removed ? REMOVE : CLEAR);
+        out.writeUTF(filename);
+        if (added != null) {
+            out.writeUTF(added.getSha1());
+        }
+        out.flush();
+        byte[] bytes = payload.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ByteBuffer record = ByteBuffer.allocate(bytes.length + 2 * Integer.BYTES);
+        record.putInt(bytes.length).put(bytes).putInt((int) crc.getValue()).flip();
+
+        Durability durability = Durability.get();
+        if (durability.syncsObjects()) {
+            // The blob first: a commit of this stage may not write it again
+            ObjectWriter.syncWritten();
+        }
+        boolean sync = durability.syncsAll();
+        try (Trace.Span span = Trace.phase(Trace.Phase.STAGE_WRITE);
+             FileChannel channel = FileChannel.open(file.toPath(),
+                     StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            long position = validLength >= 0 ? validLength : channel.size();
+            // Drop a torn record left by a crash
+            if (channel.size() > position) {
+                channel.truncate(position);
+            }
+            while (record.hasRemaining()) {
+                position += channel.write(record, position);
+            }
+            if (sync) {
+                channel.force(true);
+            }
+            validLength = position;
+            records++;
+        }
+    }
+
+    /**
+     * @return Whether the journal is due to be folded into the stage file
+     */
+    boolean isFull() {
+        return records >= COMPACT_RECORDS;
+    }
+
+    /**
+     * Forget every record, once the stage file holds them or is gone
+     */
+    void clear() {
+        file.delete();
+        validLength = 0;
+        records = 0;
+    }
+
+    private static Record parse(ByteArrayInputStream payload) {
+        try (DataInputStream in = new DataInputStream(payload)) {
+            byte op = in.readByte();
+            String filename = in.readUTF();
+            String sha1 = op == ADD ? in.readUTF() : null;
+            return new Record(filename, sha1, op == REMOVE);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Broken stage journal record", e);
+        }
+    }
+}
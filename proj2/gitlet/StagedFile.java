@@ -0,0 +1,109 @@
+package gitlet;
+
+/**
+ * The stage state of one file, all that add and rm look at: the blob it's
+ * committed as in HEAD, the blob it's staged as, and whether it's staged
+ * for removal.
+ * <p>
+ * Repository.readStagedFile reads it from the stage journal's last record
+ * of the file, so add and rm don't build the whole stage and replay every
+ * record into it. The updates are the same as the stage updates of Commit,
+ * and their result is appended to the journal as one record.
+ *
+ * @author Crvena
+ */
+class StagedFile {
+    private final String filename;
+    /* The sha1 of the blob in HEAD, null if it isn't committed */
+    private final String committed;
+    /* The blob it's staged as, null if it isn't staged for addition */
+    private Blob added;
+    private boolean removed;
+
+    StagedFile(String filename, String committed, Blob added, boolean removed) {
+        this.filename = filename;
+        this.committed = committed;
+        this.added = added;
+        this.removed = removed;
+    }
+
+    /**
+     * Same as Commit.readdFromRemoved
+     *
+     * @return true on success, false on not staged for removal
+     */
+    boolean readdFromRemoved() {
+        boolean wasRemoved = this.removed;
+        this.removed = false;
+        return wasRemoved;
+    }
+
+    /**
+     * Same as Commit.addToStage: stage BLOB, or unstage the file
+     * if BLOB is the committed version
+     *
+     * @return false if BLOB is already staged, true otherwise
+     */
+    boolean addToStage(Blob blob) {
+        assert blob.getFilename().equals(this.filename);
+        if (this.added != null && blob.equals(this.added)) {
+            return false;
+        }
+        this.added = blob.getSha1().equals(this.committed) ? null : blob;
+        return true;
+    }
+
+    /**
+     * Same as Commit.removeFromAll
+     *
+     * @return true if success, false otherwise
+     */
+    boolean removeFromAll() {
+        if (this.committed != null) {
+            this.removed = true;
+            this.added = null;
+            return true;
+        }
+        return removeFromStage();
+    }
+
+    /**
+     * Same as Commit.removeFromCommit
+     *
+     * @return true on success, false if the file isn't committed
+     */
+    boolean removeFromCommit() {
+        if (this.committed != null) {
+            this.removed = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Same as Commit.removeFromStage
+     *
+     * @return true on success, false if the file isn't staged for addition
+     */
+    boolean removeFromStage() {
+        boolean wasAdded = this.added != null;
+        this.added = null;
+        return wasAdded;
+    }
+
+    final String getFilename() {
+        return this.filename;
+    }
+
+    final String getCommittedSha1() {
+        return this.committed;
+    }
+
+    final Blob getAddedBlob() {
+        return this.added;
+    }
+
+    final boolean isRemoved() {
+        return this.removed;
+    }
+}
@@ -0,0 +1,248 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-command tracing: wall time spent in each phase, and counters.
+ * <p>
+ * Enabled by the environment variable GITLET_TRACE:
+ * <ul>
+ * <li>1 or stderr: print a summary to stderr when the command ends</li>
+ * <li>anything else: a file to append one JSON line per command to</li>
+ * </ul>
+ * Phases nest, and each one is charged its self time, i.e. without the
+ * phases started inside it. Phases on the command's main thread add up,
+ * with "other", to the command's wall time. Phases on worker threads
+ * (object writes, fsck, gc, archive prefetch) overlap with each other and
+ * with the main thread, which waits for them in one of its own phases, so
+ * they're reported apart, as the time summed over all workers.
+ * The summary is printed by a shutdown hook, since commands may end
+ * through System.exit.
+ * <p>
+ * When disabled, phase() returns a shared no-op and count() returns at once.
+ *
+ * @author Crvena
+ */
+final class Trace {
+    static final String ENV = "GITLET_TRACE";
+
+    enum Phase {
+        REFS("refs"),
+        STAGE_READ("stage-read"),
+        STAGE_WRITE("stage-write"),
+        HASH("hash"),
+        OBJECT_READ("object-read"),
+        OBJECT_WRITE("object-write"),
+        SYNC("sync"),
+        WORKTREE_WRITE("worktree-write");
+
+        final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+    }
+
+    enum Counter {
+        BYTES_HASHED("bytesHashed"),
+        OBJECTS_READ("objectsRead"),
+        OBJECT_CACHE_HITS("objectCacheHits"),
+        OBJECTS_WRITTEN("objectsWritten"),
+        BYTES_WRITTEN("bytesWritten"),
+        FILES_SYNCED("filesSynced"),
+        FILES_WRITTEN("filesWritten"),
+        FILES_STATED("filesStated");
+
+        final String key;
+
+        Counter(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * A running phase, ended by close()
+     */
+    interface Span extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static final String TARGET = System.getenv(ENV);
+    static final boolean ENABLED = TARGET != null && !TARGET.isEmpty() && !TARGET.equals("0");
+
+    private static final Span NOOP = () -> { };
+    private static final AtomicLongArray NANOS = new AtomicLongArray(Phase.values().length);
+    private static final AtomicLongArray CALLS = new AtomicLongArray(Phase.values().length);
+    /* Phases on other threads than the main one */
+    private static final AtomicLongArray WORKER_NANOS = new AtomicLongArray(Phase.values().length);
+    private static final AtomicLongArray WORKER_CALLS = new AtomicLongArray(Phase.values().length);
+    private static final AtomicLongArray COUNTERS = new AtomicLongArray(Counter.values().length);
+    private static final ThreadLocal<ArrayDeque<Timer>> RUNNING =
+            ThreadLocal.withInitial(ArrayDeque::new);
+
+    private static String command;
+    private static long start;
+    private static volatile Thread main;
+
+    private Trace() {
+    }
+
+    private static final class Timer implements Span {
+        private final Phase phase;
+        private final long start = System.nanoTime();
+        private long childNanos;
+
+        Timer(Phase phase) {
+            this.phase = phase;
+        }
+
+        @Override
+        public void close() {
+            long elapsed = System.nanoTime() - start;
+            boolean onMain = Thread.currentThread() == main;
+            (onMain ? NANOS : WORKER_NANOS).addAndGet(phase.ordinal(), elapsed - childNanos);
+            (onMain ? CALLS : WORKER_CALLS).incrementAndGet(phase.ordinal());
+            ArrayDeque<Timer> running = RUNNING.get();
+            running.remove(this);
+            Timer parent = running.peek();
+            if (parent != null) {
+                parent.childNanos += elapsed;
+            }
+        }
+    }
+
+    /**
+     * Start tracing a command, and report it when the JVM exits
+     *
+     * @param args - The command line
+     */
+    static void begin(String[] args) {
+        if (!ENABLED) {
+            return;
+        }
+        command = String.join(" ", args);
+        start = System.nanoTime();
+        main = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(Trace::report));
+    }
+
+    /**
+     * Enter a phase, use with try-with-resources
+     * Runtime: O(1)
+     */
+    static Span phase(Phase phase) {
+        if (!ENABLED) {
+            return NOOP;
+        }
+        Timer timer = new Timer(phase);
+        RUNNING.get().push(timer);
+        return timer;
+    }
+
+    /**
+     * Add N to a counter
+     * Runtime: O(1)
+     */
+    static void count(Counter counter, long n) {
+        if (ENABLED) {
+            COUNTERS.addAndGet(counter.ordinal(), n);
+        }
+    }
+
+    private static void report() {
+        long total = System.nanoTime() - start;
+        if (TARGET.equals("1") || TARGET.equals("stderr")) {
+            System.err.print(summary(total));
+            return;
+        }
+        try {
+            Files.writeString(Path.of(TARGET), json(total) + "\n", StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println("Unable to write the trace to " + TARGET + ": " + e.getMessage());
+        }
+    }
+
+    private static String summary(long total) {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.ROOT, "gitlet trace: %s: %.3f ms%n", command, total / 1e6));
+        long traced = 0;
+        for (Phase phase : Phase.values()) {
+            long nanos = NANOS.get(phase.ordinal());
+            traced += nanos;
+            if (CALLS.get(phase.ordinal()) > 0) {
+                out.append(String.format(Locale.ROOT, "  %-16s %10.3f ms %8d calls%n",
+                        phase.key, nanos / 1e6, CALLS.get(phase.ordinal())));
+            }
+        }
+        out.append(String.format(Locale.ROOT, "  %-16s %10.3f ms%n", "other", (total - traced) / 1e6));
+        for (Counter counter : Counter.values()) {
+            out.append(String.format(Locale.ROOT, "  %-16s %10d%n",
+                    counter.key, COUNTERS.get(counter.ordinal())));
+        }
+        boolean workers = false;
+        for (Phase phase : Phase.values()) {
+            if (WORKER_CALLS.get(phase.ordinal()) > 0) {
+                if (!workers) {
+                    out.append(String.format("  worker threads, summed:%n"));
+                    workers = true;
+                }
+                out.append(String.format(Locale.ROOT, "  %-16s %10.3f ms %8d calls%n",
+                        phase.key, WORKER_NANOS.get(phase.ordinal()) / 1e6,
+                        WORKER_CALLS.get(phase.ordinal())));
+            }
+        }
+        return out.toString();
+    }
+
+    private static String json(long total) {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.ROOT, "{\"command\":\"%s\",\"totalMs\":%.3f,\"phases\":{",
+                escape(command), total / 1e6));
+        String separator = "";
+        for (Phase phase : Phase.values()) {
+            out.append(String.format(Locale.ROOT, "%s\"%s\":{\"ms\":%.3f,\"calls\":%d}",
+                    separator, phase.key, NANOS.get(phase.ordinal()) / 1e6,
+                    CALLS.get(phase.ordinal())));
+            separator = ",";
+        }
+        out.append("},\"workerPhases\":{");
+        separator = "";
+        for (Phase phase : Phase.values()) {
+            out.append(String.format(Locale.ROOT, "%s\"%s\":{\"ms\":%.3f,\"calls\":%d}",
+                    separator, phase.key, WORKER_NANOS.get(phase.ordinal()) / 1e6,
+                    WORKER_CALLS.get(phase.ordinal())));
+            separator = ",";
+        }
+        out.append("},\"counters\":{");
+        separator = "";
+        for (Counter counter : Counter.values()) {
+            out.append(String.format("%s\"%s\":%d",
+                    separator, counter.key, COUNTERS.get(counter.ordinal())));
+            separator = ",";
+        }
+        return out.append("}}").toString();
+    }
+
+    private static String escape(String s) {
+        StringBuilder out = new StringBuilder();
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+}
@@ -1,5 +1,6 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -17,6 +18,7 @@ import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Formatter;
 import java.util.List;
+import java.util.function.Predicate;
 
 
 /** Assorted utilities.
@@ -36,21 +38,33 @@ class Utils {
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
-        try {
+        GitletEvents.Hash event = new GitletEvents.Hash();
+        event.begin();
+        try (Trace.Span span = Trace.phase(Trace.Phase.HASH)) {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
+            long size = 0;
             for (Object val : vals) {
                 if (val instanceof byte[]) {
                     md.update((byte[]) val);
+                    size += ((byte[]) val).length;
                 } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+                    byte[] bytes = ((String) val).getBytes(StandardCharsets.UTF_8);
+                    md.update(bytes);
+                    size += bytes.length;
                 } else {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
             }
+            Trace.count(Trace.Counter.BYTES_HASHED, size);
             Formatter result = new Formatter();
             for (byte b : md.digest()) {
                 result.format("%02x", b);
             }
+            event.end();
+            if (event.shouldCommit()) {
+                event.size = size;
+                event.commit();
+            }
             return result.toString();
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
@@ -142,8 +156,8 @@ class Utils {
     static <T extends Serializable> T readObject(
             File file, Class<T> expectedClass) throws ClassCastException {
         try {
-            ObjectInputStream in =
-                new ObjectInputStream(new FileInputStream(file));
+            ObjectInputStream in = new ObjectInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
             T result = expectedClass.cast(in.readObject());
             in.close();
             return result;
@@ -182,6 +196,17 @@ class Utils {
         }
     }
 
+    /** Same as above, but only names ACCEPT takes are stat'd and returned. */
+    static List<String> plainFilenamesIn(File dir, Predicate<String> accept) {
+        String[] files = dir.list((d, name) -> accept.test(name) && new File(d, name).isFile());
+        if (files == null) {
+            return null;
+        } else {
+            Arrays.sort(files);
+            return Arrays.asList(files);
+        }
+    }
+
     /** Returns a list of the names of all plain files in the directory DIR, in
      *  lexicographic order as Java Strings.  Returns null if DIR does
      *  not denote a directory. */
@@ -0,0 +1,195 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the unstaged files of a working directory up to date from file
+ * system events, for a long-running process that asks for them often.
+ * <p>
+ * The first query scans the whole directory. After that, a WatchService
+ * reports which names were created, modified or deleted, and a query only
+ * examines those, so it costs O(changed files) instead of O(files).
+ * <p>
+ * Events reach the WatchService asynchronously. Before using them, a query
+ * creates a cookie file in .gitlet and waits for its own event. Events are
+ * delivered in order, so every change made before the query has been seen
+ * by then (the way git's fsmonitor syncs).
+ * <p>
+ * The monitor falls back to a full scan when:
+ * <ul>
+ * <li>events overflowed, or more than MAX_DIRTY names piled up;</li>
+ * <li>the cookie didn't come back in time, e.g. on a polling WatchService;</li>
+ * <li>the stage, HEAD or sparse checkout changed, so every status may have;</li>
+ * <li>.gitletignore changed.</li>
+ * </ul>
+ * Not thread safe; queries must come from one thread at a time.
+ *
+ * @author Crvena
+ */
+class WorkspaceMonitor implements AutoCloseable {
+    /**
+     * Beyond this many changed names, a full scan is cheaper
+     */
+    static final int MAX_DIRTY = 1 << 16;
+    /**
+     * How long to wait for the cookie, in ms
+     */
+    static final long SYNC_TIMEOUT = 1000;
+
+    private static final String COOKIE_PREFIX = "monitor-cookie-";
+
+    private final File gitletDir;
+    private final WatchService watcher;
+    private final WatchKey workKey;
+    private final WatchKey gitletKey;
+    private final Set<String> dirty = new HashSet<>();
+    private boolean overflowed = true;
+    private long cookies;
+
+    /* Kept from the last query, valid while the stage key is the same */
+    private String stageKey;
+    private Commit staged;
+    private SortedMap<String, Repository.UnstagedStatus> unstaged;
+
+    /**
+     * Start watching WORKDIR
+     *
+     * @param workDir   - The working directory
+     * @param gitletDir - Its .gitlet directory, where cookies are written
+     * @throws IOException - When the file system can't be watched
+     */
+    WorkspaceMonitor(File workDir, File gitletDir) throws IOException {
+        this.gitletDir = gitletDir;
+        this.watcher = FileSystems.getDefault().newWatchService();
+        WatchEvent.Kind<?>[] kinds = {StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY};
+        try {
+            this.workKey = workDir.toPath().register(watcher, kinds);
+            this.gitletKey = gitletDir.toPath().register(watcher, kinds);
+        } catch (IOException e) {
+            watcher.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the unstaged files, examining only the names changed since the last query
+     * Runtime: O(D) with D changed files, O(N) with N files on a full scan
+     *
+     * @param key      - Identifies the stage and HEAD, see Repository.getStageKey()
+     * @param stage    - Reads the stage, called only when KEY changed
+     * @param scan     - Gets the unstaged files of the whole directory against a stage
+     * @param examine  - Gets the status of one file against a stage, null if it's unstaged
+     * @return The unstaged files, filename mapped to their status. Read only,
+     *         and valid until the next query.
+     */
+    SortedMap<String, Repository.UnstagedStatus> getUnstaged(
+            String key, Supplier<Commit> stage,
+            Function<Commit, SortedMap<String, Repository.UnstagedStatus>> scan,
+            BiFunction<Commit, String, Repository.UnstagedStatus> examine
+    ) {
+        boolean synced = sync();
+        boolean rescan = !synced || overflowed || dirty.size() > MAX_DIRTY
+                || !key.equals(stageKey) || dirty.contains(IgnoreMatcher.IGNORE_FILENAME);
+        if (rescan) {
+            // Changes made during the scan are still queued, the next query sees them
+            dirty.clear();
+            overflowed = !synced;
+            staged = stage.get();
+            stageKey = key;
+            unstaged = new TreeMap<>(scan.apply(staged));
+            return Collections.unmodifiableSortedMap(unstaged);
+        }
+        for (String filename : dirty) {
+            Repository.UnstagedStatus status = examine.apply(staged, filename);
+            if (status != null) {
+                unstaged.put(filename, status);
+            } else {
+                unstaged.remove(filename);
+            }
+        }
+        dirty.clear();
+        return Collections.unmodifiableSortedMap(unstaged);
+    }
+
+    /**
+     * Take in every event up to now
+     *
+     * @return false if it's not sure all of them arrived
+     */
+    private boolean sync() {
+        if (!workKey.isValid()) {
+            return false;
+        }
+        String cookie = COOKIE_PREFIX + ProcessHandle.current().pid() + "-" + cookies++;
+        File cookieFile = new File(gitletDir, cookie);
+        try {
+            if (!cookieFile.createNewFile()) {
+                return false;
+            }
+            long deadline = System.currentTimeMillis() + SYNC_TIMEOUT;
+            boolean seen = false;
+            while (!seen) {
+                long left = deadline - System.currentTimeMillis();
+                WatchKey key = left > 0 ? watcher.poll(left, TimeUnit.MILLISECONDS) : null;
+                if (key == null) {
+                    return false;
+                }
+                seen = take(key, cookie);
+            }
+            // Take what else is queued, without waiting
+            for (WatchKey key = watcher.poll(); key != null; key = watcher.poll()) {
+                take(key, cookie);
+            }
+            return workKey.isValid();
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            cookieFile.delete();
+        }
+    }
+
+    /**
+     * Record the events of KEY
+     *
+     * @return Whether COOKIE was among them
+     */
+    private boolean take(WatchKey key, String cookie) {
+        boolean seen = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflowed = true;
+            } else if (key == workKey) {
+                dirty.add(((Path) event.context()).toString());
+            } else if (key == gitletKey && event.context().toString().equals(cookie)) {
+                seen = true;
+            }
+        }
+        key.reset();
+        return seen;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+    }
+}
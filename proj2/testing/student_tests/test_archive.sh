@@ -0,0 +1,35 @@
+#!/bin/zsh
+
+rm -rf ./gittest/
+mkdir ./gittest/
+cd ./gittest/ || exit
+
+gitlet init
+# Over 100 bytes, so it needs a pax header
+long=$(printf '%0120d' 0).txt
+echo "small" >a.txt
+echo "long name" >"$long"
+head -c 3000000 /dev/urandom >big.bin
+for f in a.txt "$long" big.bin; do
+    gitlet add "$f"
+done
+gitlet commit "files"
+
+# The archive unpacks to the checked out files
+# Usage: check [tar option] [archive option]...
+check() {
+    tar_option=$1
+    shift
+    rm -rf ../out/
+    mkdir ../out/
+    gitlet archive "$@" master | tar -x $tar_option -f - -C ../out/
+    for f in a.txt "$long" big.bin; do
+        cmp "$f" "../out/$f" || echo "$f differs with $*"
+    done
+    ls ../out/ | wc -l | tr -d ' ' | diff - <(echo "3")
+}
+check ""
+check -z --gzip
+check "" --prefetch 2
+check -z --gzip --prefetch 2
+rm -rf ../out/
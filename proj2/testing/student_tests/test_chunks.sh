@@ -0,0 +1,28 @@
+#!/bin/zsh
+
+rm -rf ./gittest/
+mkdir ./gittest/
+cd ./gittest/ || exit
+
+gitlet init
+head -c 4000000 /dev/urandom >big.bin
+cp big.bin ../big.orig
+gitlet add big.bin
+gitlet commit "big file"
+before=$(find .gitlet/chunks -type f | wc -l)
+
+# An edit in the middle only stores the chunks around it
+python3 -c "
+d = bytearray(open('big.bin', 'rb').read())
+d[2000000:2000000] = b'an edit'
+open('big.bin', 'wb').write(d)"
+gitlet add big.bin
+gitlet commit "edited"
+after=$(find .gitlet/chunks -type f | wc -l)
+[ $((after - before)) -le 2 ] || echo "too many new chunks: $before -> $after"
+
+# Both versions come back whole
+gitlet checkout "$(gitlet log | sed -n '7p' | cut -d' ' -f2)" -- big.bin
+cmp big.bin ../big.orig
+gitlet fsck | diff - <(echo "Checked 5 objects, found 0 problems.")
+rm -f ../big.orig
@@ -0,0 +1,20 @@
+#!/bin/zsh
+
+rm -rf ./gittest/
+mkdir ./gittest/
+cd ./gittest/ || exit
+
+gitlet init
+gitlet durability | diff - <(echo "objects")
+gitlet durability always | diff - <(echo "Unknown durability always, use none, objects or full.")
+
+# Every level commits the same way
+for level in none full objects; do
+  gitlet durability $level
+  gitlet durability | diff - <(echo "$level")
+  echo "$level" >"$level.txt"
+  gitlet add "$level.txt"
+  gitlet commit "at $level"
+done
+gitlet log | grep -c "^at " | diff - <(echo "3")
+gitlet fsck | diff - <(echo "Checked 7 objects, found 0 problems.")
@@ -0,0 +1,48 @@
+#!/bin/zsh
+
+rm -rf ./gittest/
+mkdir ./gittest/
+cd ./gittest/ || exit
+
+gitlet init
+echo "kept" >a.txt
+gitlet add a.txt
+gitlet commit "a.txt"
+
+# A branch with a chunked file, then deleted
+gitlet branch doomed
+gitlet switch doomed
+head -c 4000000 /dev/urandom >big.bin
+echo "doomed" >d.txt
+gitlet add big.bin
+gitlet add d.txt
+gitlet commit "doomed files"
+gitlet switch master
+gitlet rm-branch doomed
+echo "more" >>a.txt
+gitlet add a.txt
+gitlet commit "more a.txt"
+chunks=$(find .gitlet/chunks -type f | wc -l)
+[ "$chunks" -gt 0 ] || echo "no chunks stored"
+
+# Only staged through the journal, with no stage file
+echo "staged" >s.txt
+gitlet add s.txt
+[ ! -e .gitlet/stage ] || echo "stage file written"
+
+# Within the grace period nothing goes
+gitlet gc | diff - <(printf "Removed 0 unreachable objects, freed 0 bytes.\n")
+# The doomed commit and its two blobs, then the chunks of big.bin
+gitlet gc --prune now | cut -d, -f1 | diff - <(echo "Removed $((chunks + 3)) unreachable objects")
+find .gitlet/chunks -type f | wc -l | tr -d " " | diff - <(echo "0")
+
+# What's reachable is still whole
+gitlet commit "s.txt"
+rm a.txt s.txt
+gitlet checkout -- a.txt
+gitlet checkout -- s.txt
+cat a.txt s.txt | diff - <(printf "kept\nmore\nstaged\n")
+gitlet fsck | diff - <(echo "Checked 7 objects, found 0 problems.")
+
+gitlet gc --prune 2x | diff - <(echo "Incorrect operands.")
+gitlet gc --prune | diff - <(echo "Incorrect operands.")
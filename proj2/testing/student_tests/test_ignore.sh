@@ -0,0 +1,21 @@
+#!/bin/zsh
+
+rm -rf ./gittest/
+mkdir ./gittest/
+cd ./gittest/ || exit
+
+gitlet init
+echo "tracked" >tracked.log
+gitlet add tracked.log
+gitlet commit "tracked log"
+
+printf '# build outputs\n*.log\n!keep.log\nfoo[!x].o\n' >.gitletignore
+echo "a" >a.txt
+echo "x" >x.log
+echo "k" >keep.log
+echo "o" >fooa.o
+echo "o" >foox.o
+
+# Ignored files are left out, tracked ones are still seen
+echo "more" >>tracked.log
+gitlet status | sed -n '/Not Staged/,$p' | diff - <(printf "=== Modifications Not Staged For Commit ===\ntracked.log (modified)\n\n=== Untracked Files ===\n.gitletignore\na.txt\nfoox.o\nkeep.log\n\n")
@@ -0,0 +1,41 @@
+#!/bin/zsh
+
+rm -rf ./gittest/ ./gitremote/
+mkdir ./gittest/ ./gitremote/
+
+cd ./gitremote/ || exit
+gitlet init
+for f in a.txt b.txt c.txt; do
+    echo "$f" >"$f"
+    gitlet add "$f"
+done
+gitlet commit "base"
+gitlet branch other
+gitlet branch feature
+gitlet switch other
+echo "other" >b.txt
+gitlet add b.txt
+gitlet commit "other b.txt"
+gitlet switch feature
+echo "new" >d.txt
+gitlet add d.txt
+gitlet commit "feature d.txt"
+gitlet switch master
+echo "more" >>a.txt
+gitlet add a.txt
+gitlet commit "master a.txt"
+
+# Only the blobs of the checked out branch are copied
+cd ../gittest/ || exit
+gitlet clone --partial ../gitremote/.gitlet
+ls | diff - <(printf "a.txt\nb.txt\nc.txt\n")
+ls .gitlet/objects/*/* | wc -l | tr -d ' ' | diff - <(echo "8")
+
+# The rest is fetched from the remote when needed
+gitlet checkout other
+cat b.txt | diff - <(printf "other\n")
+gitlet checkout master
+gitlet merge feature
+ls | diff - <(printf "a.txt\nb.txt\nc.txt\nd.txt\n")
+cat d.txt | diff - <(printf "new\n")
+gitlet fsck | diff - <(printf "Checked 12 objects, found 0 problems.\n")
@@ -0,0 +1,33 @@
+#!/bin/zsh
+
+rm -rf ./gittest/ ./gitremote/
+mkdir ./gittest/ ./gitremote/
+
+cd ./gitremote/ || exit
+echo "one" >a.txt
+gitlet init
+gitlet add a.txt
+gitlet commit "remote one"
+
+cd ../gittest/ || exit
+gitlet init
+gitlet add-remote R1 ../gitremote/.gitlet
+gitlet add-remote R1 ../gitremote/.gitlet | diff - <(printf "A remote with that name already exists.\n")
+gitlet fetch R1 nope | diff - <(printf "That remote does not have that branch.\n")
+gitlet fetch R1 master
+gitlet status | head -4 | diff - <(printf "=== Branches ===\n*master\nR1/master\n\n")
+
+# Local work diverges from the remote, so it has to be pulled first
+echo "two" >b.txt
+gitlet add b.txt
+gitlet commit "local two"
+gitlet push R1 master | diff - <(printf "Please pull down remote changes before pushing.\n")
+gitlet pull R1 master
+ls | diff - <(printf "a.txt\nb.txt\n")
+gitlet push R1 master
+
+cd ../gitremote/ || exit
+gitlet log | grep -m1 "^Merged" | diff - <(printf "Merged R1/master into master.\n")
+gitlet fsck | diff - <(printf "Checked 6 objects, found 0 problems.\n")
+gitlet add-remote R2 ../nowhere/.gitlet
+gitlet fetch R2 master | diff - <(printf "Remote directory not found.\n")
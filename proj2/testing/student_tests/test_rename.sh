@@ -0,0 +1,34 @@
+#!/bin/zsh
+
+rm -rf ./gittest/
+mkdir ./gittest/
+cd ./gittest/ || exit
+
+printf "l1\nl2\nl3\nl4\n" >f.txt
+echo "keep" >keep.txt
+
+gitlet init
+gitlet add f.txt
+gitlet add keep.txt
+gitlet commit "base"
+
+gitlet branch other
+
+printf "l1\nl2\nl3\nl4\nl5\n" >f.txt
+gitlet add f.txt
+gitlet commit "modify f.txt"
+
+gitlet switch other
+mv f.txt g.txt
+gitlet rm f.txt
+gitlet add g.txt
+gitlet status | diff - <(printf "=== Branches ===\n*other\nmaster\n\n=== Staged Files ===\ng.txt\n\n=== Removed Files ===\nf.txt\n\n=== Modifications Not Staged For Commit ===\n\n=== Untracked Files ===\n\n")
+gitlet status --renames | diff - <(printf "=== Branches ===\n*other\nmaster\n\n=== Staged Files ===\ng.txt\n\n=== Removed Files ===\nf.txt\n\n=== Renamed Files ===\nf.txt -> g.txt\n\n=== Modifications Not Staged For Commit ===\n\n=== Untracked Files ===\n\n")
+gitlet diff | diff - <(printf "R100\tf.txt\tg.txt\n")
+gitlet commit "rename f.txt to g.txt"
+
+# The change to f.txt should follow the rename instead of conflicting
+gitlet switch master
+gitlet merge other
+ls | diff - <(printf "g.txt\nkeep.txt\n")
+diff g.txt <(printf "l1\nl2\nl3\nl4\nl5\n")
@@ -0,0 +1,77 @@
+#!/bin/zsh
+
+rm -rf ./gittest/
+mkdir ./gittest/
+cd ./gittest/ || exit
+
+gitlet init
+for f in a.txt b.txt c.md; do
+    echo "$f" >"$f"
+    gitlet add "$f"
+done
+gitlet commit "base"
+gitlet branch other
+
+gitlet switch other
+echo "changed" >c.md
+gitlet add c.md
+gitlet commit "other c.md"
+gitlet switch master
+echo "more" >>a.txt
+gitlet add a.txt
+gitlet commit "master a.txt"
+
+# Left out files are neither written nor reported as deleted
+gitlet sparse-checkout set '*.txt' '!b.txt'
+ls | diff - <(printf "a.txt\n")
+gitlet sparse-checkout list | diff - <(printf "*.txt\n!b.txt\n")
+gitlet status | sed -n '/Not Staged/,/^$/p' | diff - <(printf "=== Modifications Not Staged For Commit ===\n\n")
+
+# Merged changes to left out files are committed without being written
+gitlet merge other
+ls | diff - <(printf "a.txt\n")
+
+gitlet sparse-checkout disable
+ls | diff - <(printf "a.txt\nb.txt\nc.md\n")
+cat c.md | diff - <(printf "changed\n")
+gitlet sparse-checkout list | diff - /dev/null
+
+# A rename merged outside the sparse checkout touches no file
+echo "notes" >notes.md
+gitlet add notes.md
+gitlet commit "notes"
+gitlet branch renamer
+gitlet switch renamer
+gitlet rm notes.md
+echo "notes" >moved.md
+gitlet add moved.md
+gitlet commit "rename notes"
+gitlet switch master
+echo "more notes" >>notes.md
+gitlet add notes.md
+gitlet commit "edit notes"
+gitlet sparse-checkout set '*.txt'
+gitlet merge renamer
+ls | diff - <(printf "a.txt\nb.txt\n")
+gitlet sparse-checkout disable
+ls | diff - <(printf "a.txt\nb.txt\nc.md\nmoved.md\n")
+cat moved.md | diff - <(printf "notes\nmore notes\n")
+
+# A conflict outside the sparse checkout isn't written either
+echo "base" >d.md
+gitlet add d.md
+gitlet commit "d.md"
+gitlet branch both
+echo "ours" >d.md
+gitlet add d.md
+gitlet commit "our d.md"
+gitlet switch both
+echo "theirs" >d.md
+echo "new" >e.md
+gitlet add d.md
+gitlet add e.md
+gitlet commit "their d.md"
+gitlet switch master
+gitlet sparse-checkout set '*.txt'
+gitlet merge both
+ls | diff - <(printf "a.txt\nb.txt\n")